@@ -6,11 +6,13 @@ import javax.swing.UIManager.LookAndFeelInfo;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.scan.cli.CommandLineSearch;
 import org.xandercat.cat.scan.swing.FileSearchFrame;
 import org.xandercat.swing.util.PlatformTool;
 
 /**
- * CatScan is a file searching utility.
+ * CatScan is a file searching utility.  When run with arguments, a single search is run from
+ * the command line instead of showing the user interface.
  * 
  * @author Scott Arnold
  */
@@ -22,6 +24,11 @@ public class CatScan {
 	
 	public static void main(String[] args) {
 		log.info(APPLICATION_NAME + " " + APPLICATION_VERSION);
+		if (args.length > 0) {
+			// search from the command line without showing the user interface
+			System.setProperty("java.awt.headless", "true");
+			System.exit(CommandLineSearch.run(args, System.out, System.err));
+		}
 		if (!PlatformTool.isMac()) {
 			for (LookAndFeelInfo lafInfo : UIManager.getInstalledLookAndFeels()) {
 				if ("Nimbus".equals(lafInfo.getName())) {
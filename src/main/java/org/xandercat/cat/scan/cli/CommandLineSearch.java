@@ -0,0 +1,501 @@
+package org.xandercat.cat.scan.cli;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.xandercat.cat.scan.filter.FileSearchFilter;
+import org.xandercat.cat.scan.filter.SearchFilterFactory;
+import org.xandercat.cat.scan.search.SearchEngine;
+import org.xandercat.cat.scan.search.SearchMatch;
+import org.xandercat.cat.scan.search.SearchSubscriber;
+import org.xandercat.cat.scan.search.SearchSubscription;
+import org.xandercat.swing.zenput.annotation.InputField;
+import org.xandercat.swing.zenput.annotation.ValidateInteger;
+import org.xandercat.swing.zenput.annotation.ValidateRequired;
+
+/**
+ * Runs a search from the command line, without a user interface, and writes matches to
+ * standard output as they are found.  Any of the default search filters can be used; the
+ * filter is named by its class name without the SearchFilter suffix (filename, text, class,
+ * or stat), and its input fields are set with options named after the fields, e.g.
+ * --searchString or --namePatterns.
+ *
+ * Matches are written in one of three formats: plain, with one line per match detail in the
+ * form path[!/entry...][: detail]; json, with one JSON object per matching file or archive
+ * entry; or null, with matching paths separated by NUL characters for use with xargs -0.
+ * Matches are written in the order they are found, which varies from search to search as
+ * files are searched in parallel.
+ *
+ * As with grep, the exit status is 0 if there are matches, 1 if there are none, and 2 if
+ * the command line is invalid or any file could not be searched.
+ */
+public class CommandLineSearch {
+
+	public static final int EXIT_MATCHES = 0;
+	public static final int EXIT_NO_MATCHES = 1;
+	public static final int EXIT_ERROR = 2;
+
+	private static final String FILTER_SUFFIX = "SearchFilter";
+	private static final List<String> ENGINE_OPTIONS = Arrays.asList("parallelism", "walkerParallelism", "queueCapacity", "maxMatches", 
+			"excludedDirectories", "maxDepth", "followLinks", "useIgnoreFiles", "useMetadataIndex", "refreshMetadataIndex", "useTrigramIndex");
+	private static final List<String> FLAG_ENGINE_OPTIONS = Arrays.asList("followLinks", "useIgnoreFiles", "useMetadataIndex", "refreshMetadataIndex", 
+			"useTrigramIndex");
+
+	private static enum Format {
+		PLAIN, JSON, NULL;
+	}
+
+	private final PrintStream out;
+	private final Format format;
+	private int matchCount;	// only updated from subscriber callbacks, which are made one at a time
+
+	private CommandLineSearch(PrintStream out, Format format) {
+		this.out = out;
+		this.format = format;
+	}
+
+	/**
+	 * Runs a search for the given command line arguments.
+	 *
+	 * @param args		command line arguments
+	 * @param out		stream to write matches to
+	 * @param err		stream to write usage and error messages to
+	 *
+	 * @return			exit status
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		Map<String, Class<? extends FileSearchFilter>> filterClasses = getFilterClasses();
+		if (args.length == 0 || "--help".equals(args[0]) || "-h".equals(args[0])) {
+			printUsage(err, filterClasses);
+			return (args.length == 0)? EXIT_ERROR : EXIT_MATCHES;
+		}
+		Class<? extends FileSearchFilter> filterClass = filterClasses.get(args[0].toLowerCase(Locale.ENGLISH));
+		if (filterClass == null) {
+			err.println("Unknown search filter: " + args[0]);
+			printUsage(err, filterClasses);
+			return EXIT_ERROR;
+		}
+		FileSearchFilter filter = SearchFilterFactory.newFilter(filterClass);
+		Map<String, PropertyDescriptor> properties;
+		try {
+			properties = getInputProperties(filterClass);
+		} catch (IntrospectionException e) {
+			err.println("Unable to read options of search filter " + args[0] + ": " + e.getMessage());
+			return EXIT_ERROR;
+		}
+		Format format = Format.PLAIN;
+		File directory = null;
+		SearchEngine engine = null;
+		Map<String, String> engineOptions = new LinkedHashMap<String, String>();
+		try {
+			for (int i=1; i<args.length; i++) {
+				String arg = args[i];
+				if (!arg.startsWith("--")) {
+					if (directory != null) {
+						throw new IllegalArgumentException("Only one directory can be searched; found " + directory.getPath() + " and " + arg);
+					}
+					directory = new File(arg);
+					continue;
+				}
+				String option = arg.substring(2);
+				String value = null;
+				int equals = option.indexOf('=');
+				if (equals >= 0) {
+					value = option.substring(equals+1);
+					option = option.substring(0, equals);
+				}
+				if ("help".equals(option)) {
+					printFilterUsage(err, args[0], filterClass, properties);
+					return EXIT_MATCHES;
+				}
+				PropertyDescriptor property = properties.get(option);
+				if (property == null && !"format".equals(option) && !ENGINE_OPTIONS.contains(option)) {
+					throw new IllegalArgumentException("Unknown option --" + option + " for search filter " + args[0]);
+				}
+				boolean flag = (property != null && (property.getPropertyType() == boolean.class || property.getPropertyType() == Boolean.class))
+						|| FLAG_ENGINE_OPTIONS.contains(option);
+				if (value == null && !(flag && (i+1 == args.length || args[i+1].startsWith("--") || !isBoolean(args[i+1])))) {
+					if (i+1 == args.length) {
+						throw new IllegalArgumentException("Missing value for option --" + option);
+					}
+					value = args[++i];
+				}
+				if ("format".equals(option)) {
+					try {
+						format = Format.valueOf(value.toUpperCase(Locale.ENGLISH));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("Option --format must be one of plain, json, null; found " + value);
+					}
+				} else if (ENGINE_OPTIONS.contains(option)) {
+					engineOptions.put(option, value);
+				} else {
+					setProperty(filter, property, (value == null)? "true" : value);
+				}
+			}
+			if (directory == null) {
+				throw new IllegalArgumentException("No directory given to search.");
+			}
+			if (!directory.isDirectory()) {
+				throw new IllegalArgumentException("Not a directory: " + directory.getPath());
+			}
+			validate(filter, filterClass, properties);
+			engine = new SearchEngine(directory, filter);
+			for (Map.Entry<String, String> engineOption : engineOptions.entrySet()) {
+				if ("excludedDirectories".equals(engineOption.getKey())) {
+					engine.setExcludedDirectories(engineOption.getValue());
+					continue;
+				} else if (FLAG_ENGINE_OPTIONS.contains(engineOption.getKey())) {
+					if (engineOption.getValue() != null && !isBoolean(engineOption.getValue())) {
+						throw new IllegalArgumentException("Option --" + engineOption.getKey() + " requires true or false; found " + engineOption.getValue());
+					}
+					boolean enabled = engineOption.getValue() == null || Boolean.parseBoolean(engineOption.getValue());
+					if ("followLinks".equals(engineOption.getKey())) {
+						engine.setFollowLinks(enabled);
+					} else if ("useIgnoreFiles".equals(engineOption.getKey())) {
+						engine.setUseIgnoreFiles(enabled);
+					} else if ("useMetadataIndex".equals(engineOption.getKey())) {
+						engine.setUseMetadataIndex(enabled);
+					} else if ("useTrigramIndex".equals(engineOption.getKey())) {
+						engine.setUseTrigramIndex(enabled);
+					} else {
+						engine.setRefreshMetadataIndex(enabled);
+					}
+					continue;
+				}
+				int value = parseInt(engineOption.getKey(), engineOption.getValue());
+				if ("parallelism".equals(engineOption.getKey())) {
+					engine.setParallelism(value);
+				} else if ("walkerParallelism".equals(engineOption.getKey())) {
+					engine.setWalkerParallelism(value);
+				} else if ("maxMatches".equals(engineOption.getKey())) {
+					engine.setMaxMatches(value);
+				} else if ("maxDepth".equals(engineOption.getKey())) {
+					engine.setMaxDepth(value);
+				} else {
+					engine.setQueueCapacity(value);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println("Use catscan " + args[0] + " --help to list the options of the search filter.");
+			return EXIT_ERROR;
+		}
+		PrintStream bufferedOut = new PrintStream(new BufferedOutputStream(out, 65536), false);
+		CommandLineSearch search = new CommandLineSearch(bufferedOut, format);
+		Subscriber subscriber = search.new Subscriber();
+		try {
+			engine.subscribe(subscriber);
+		} finally {
+			bufferedOut.flush();
+		}
+		if (subscriber.failure != null) {
+			err.println("Search could not be completed: " + subscriber.failure);
+			return EXIT_ERROR;
+		}
+		if (engine.getBinaryFilesSkipped() > 0) {
+			err.println(engine.getBinaryFilesSkipped() + " binary file(s) skipped (" + engine.getBinaryBytesSkipped() + " bytes).");
+		}
+		if (engine.getErrorCount() > 0) {
+			err.println(engine.getErrorCount() + " file(s) could not be searched; see catscan.log for details.");
+			return EXIT_ERROR;
+		}
+		return (search.matchCount > 0)? EXIT_MATCHES : EXIT_NO_MATCHES;
+	}
+
+	private static Map<String, Class<? extends FileSearchFilter>> getFilterClasses() {
+		Map<String, Class<? extends FileSearchFilter>> filterClasses = new LinkedHashMap<String, Class<? extends FileSearchFilter>>();
+		for (Class<? extends FileSearchFilter> filterClass : SearchFilterFactory.getDefaultFilterClasses()) {
+			String name = filterClass.getSimpleName();
+			if (name.endsWith(FILTER_SUFFIX)) {
+				name = name.substring(0, name.length() - FILTER_SUFFIX.length());
+			}
+			filterClasses.put(name.toLowerCase(Locale.ENGLISH), filterClass);
+		}
+		return filterClasses;
+	}
+
+	/**
+	 * Gets the properties of a search filter that can be set from the command line; these are
+	 * the properties backed by the input fields shown for the filter in the user interface.
+	 *
+	 * @param filterClass		search filter class
+	 *
+	 * @return					properties keyed by name, in order of declaration from superclass to subclass
+	 *
+	 * @throws IntrospectionException
+	 */
+	private static Map<String, PropertyDescriptor> getInputProperties(Class<?> filterClass) throws IntrospectionException {
+		BeanInfo beanInfo = Introspector.getBeanInfo(filterClass);
+		Map<String, PropertyDescriptor> descriptors = new LinkedHashMap<String, PropertyDescriptor>();
+		for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+			if (descriptor.getWriteMethod() != null && descriptor.getReadMethod() != null) {
+				descriptors.put(descriptor.getName(), descriptor);
+			}
+		}
+		Map<String, PropertyDescriptor> properties = new LinkedHashMap<String, PropertyDescriptor>();
+		for (Field field : getInputFields(filterClass)) {
+			PropertyDescriptor descriptor = descriptors.get(field.getName());
+			if (descriptor != null) {
+				properties.put(field.getName(), descriptor);
+			}
+		}
+		return properties;
+	}
+
+	private static List<Field> getInputFields(Class<?> filterClass) {
+		List<Field> fields = new ArrayList<Field>();
+		if (filterClass.getSuperclass() != null) {
+			fields.addAll(getInputFields(filterClass.getSuperclass()));
+		}
+		for (Field field : filterClass.getDeclaredFields()) {
+			if (field.isAnnotationPresent(InputField.class)) {
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	private static Field getInputField(Class<?> filterClass, String name) {
+		for (Field field : getInputFields(filterClass)) {
+			if (field.getName().equals(name)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isBoolean(String value) {
+		return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+	}
+
+	private static int parseInt(String option, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option --" + option + " requires a whole number; found " + value);
+		}
+	}
+
+	private static void setProperty(FileSearchFilter filter, PropertyDescriptor property, String value) {
+		Class<?> type = property.getPropertyType();
+		Object convertedValue;
+		if (type == String.class) {
+			convertedValue = value;
+		} else if (type == boolean.class || type == Boolean.class) {
+			if (!isBoolean(value)) {
+				throw new IllegalArgumentException("Option --" + property.getName() + " requires true or false; found " + value);
+			}
+			convertedValue = Boolean.valueOf(value);
+		} else if (type == int.class || type == Integer.class) {
+			convertedValue = Integer.valueOf(parseInt(property.getName(), value));
+		} else if (type == long.class || type == Long.class) {
+			try {
+				convertedValue = Long.valueOf(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Option --" + property.getName() + " requires a whole number; found " + value);
+			}
+		} else if (type.isEnum()) {
+			convertedValue = null;
+			String constantName = value.replace('-', '_');
+			for (Object constant : type.getEnumConstants()) {
+				if (((Enum<?>) constant).name().equalsIgnoreCase(constantName)) {
+					convertedValue = constant;
+				}
+			}
+			if (convertedValue == null) {
+				throw new IllegalArgumentException("Option --" + property.getName() + " must be one of " + getEnumNames(type) + "; found " + value);
+			}
+		} else {
+			throw new IllegalArgumentException("Option --" + property.getName() + " cannot be set from the command line.");
+		}
+		try {
+			property.getWriteMethod().invoke(filter, convertedValue);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalArgumentException("Unable to set option --" + property.getName() + ": " + e.getMessage());
+		}
+	}
+
+	private static String getEnumNames(Class<?> type) {
+		StringBuilder sb = new StringBuilder();
+		for (Object constant : type.getEnumConstants()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(((Enum<?>) constant).name().toLowerCase(Locale.ENGLISH).replace('_', '-'));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Validates the input fields of the filter with the same rules the user interface applies.
+	 *
+	 * @param filter			search filter
+	 * @param filterClass		search filter class
+	 * @param properties		properties that can be set from the command line
+	 */
+	private static void validate(FileSearchFilter filter, Class<?> filterClass, Map<String, PropertyDescriptor> properties) {
+		for (PropertyDescriptor property : properties.values()) {
+			Field field = getInputField(filterClass, property.getName());
+			Object value;
+			try {
+				value = property.getReadMethod().invoke(filter);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalArgumentException("Unable to read option --" + property.getName() + ": " + e.getMessage());
+			}
+			if (field.isAnnotationPresent(ValidateRequired.class) && (value == null || value.toString().trim().length() == 0)) {
+				throw new IllegalArgumentException("Option --" + property.getName() + " is required.");
+			}
+			ValidateInteger validateInteger = field.getAnnotation(ValidateInteger.class);
+			if (validateInteger != null && value instanceof Number) {
+				long number = ((Number) value).longValue();
+				if (number < validateInteger.min() || number > validateInteger.max()) {
+					throw new IllegalArgumentException("Option --" + property.getName() + " must be between "
+							+ validateInteger.min() + " and " + validateInteger.max() + ".");
+				}
+			}
+		}
+		String criteriaError = filter.getCriteriaError();
+		if (criteriaError != null) {
+			throw new IllegalArgumentException(criteriaError);
+		}
+	}
+
+	private static void printUsage(PrintStream err, Map<String, Class<? extends FileSearchFilter>> filterClasses) {
+		err.println("Usage: catscan <filter> [--<option> <value>]... [--format plain|json|null] [--parallelism <n>]");
+		err.println("               [--walkerParallelism <n>] [--queueCapacity <n>] [--maxMatches <n>]");
+		err.println("               [--excludedDirectories <patterns>] [--maxDepth <n>] [--followLinks true|false]");
+		err.println("               [--useIgnoreFiles] [--useMetadataIndex] [--refreshMetadataIndex] [--useTrigramIndex]");
+		err.println("               <directory>");
+		err.println("Filters:");
+		for (Map.Entry<String, Class<? extends FileSearchFilter>> entry : filterClasses.entrySet()) {
+			FileSearchFilter filter = SearchFilterFactory.newFilter(entry.getValue());
+			err.println("  " + entry.getKey() + " - " + ((filter == null)? entry.getValue().getSimpleName() : filter.getName()));
+		}
+		err.println("Use catscan <filter> --help to list the options of a filter.");
+	}
+
+	private static void printFilterUsage(PrintStream err, String filterName, Class<?> filterClass, Map<String, PropertyDescriptor> properties) {
+		err.println("Options for " + filterName + ":");
+		for (PropertyDescriptor property : properties.values()) {
+			Field field = getInputField(filterClass, property.getName());
+			StringBuilder sb = new StringBuilder();
+			sb.append("  --").append(property.getName()).append(" - ").append(field.getAnnotation(InputField.class).title());
+			if (property.getPropertyType().isEnum()) {
+				sb.append(" (").append(getEnumNames(property.getPropertyType())).append(')');
+			}
+			if (field.isAnnotationPresent(ValidateRequired.class)) {
+				sb.append(" [required]");
+			}
+			err.println(sb.toString());
+		}
+	}
+
+	/**
+	 * Writes one match in the output format.
+	 *
+	 * @param match			match to write
+	 */
+	private void writeMatch(SearchMatch match) {
+		this.matchCount++;
+		StringBuilder sb = new StringBuilder();
+		switch (this.format) {
+		case JSON:
+			sb.append("{\"path\":");
+			appendJson(sb, match.getFile().getPath());
+			sb.append(",\"archive\":[");
+			appendJson(sb, match.getArchivePath());
+			sb.append("],\"details\":[");
+			appendJson(sb, match.getDetails());
+			sb.append("]}\n");
+			break;
+		case NULL:
+			sb.append(match.getPath()).append('\0');
+			break;
+		default:
+			if (match.getDetails().isEmpty()) {
+				sb.append(match.getPath()).append('\n');
+			}
+			for (String detail : match.getDetails()) {
+				sb.append(match.getPath()).append(": ").append(detail).append('\n');
+			}
+			break;
+		}
+		this.out.print(sb.toString());
+	}
+
+	private static void appendJson(StringBuilder sb, List<String> values) {
+		for (int i=0; i<values.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			appendJson(sb, values.get(i));
+		}
+	}
+
+	private static void appendJson(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Subscriber writing matches as the engine sends them.
+	 */
+	private class Subscriber implements SearchSubscriber {
+
+		private Throwable failure;
+
+		public void onSubscribe(SearchSubscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		public void onMatch(SearchMatch match) {
+			writeMatch(match);
+		}
+
+		public void onComplete() {
+		}
+
+		public void onError(Throwable throwable) {
+			this.failure = throwable;
+		}
+	}
+}
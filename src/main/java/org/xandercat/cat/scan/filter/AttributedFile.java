@@ -0,0 +1,54 @@
+package org.xandercat.cat.scan.filter;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * File that carries the basic file attributes read for it when its directory was listed.
+ * The type, size, and last modified queries are answered from those attributes, so filters,
+ * result nodes, and renderers holding this file never need to go back to the file system
+ * for them.
+ *
+ * The attributes are a snapshot; they are not refreshed if the file changes afterwards.
+ */
+public class AttributedFile extends File {
+
+	private static final long serialVersionUID = 2024012201L;
+
+	private transient BasicFileAttributes attributes;
+
+	public AttributedFile(Path path, BasicFileAttributes attributes) {
+		super(path.toString());
+		this.attributes = attributes;
+	}
+
+	/**
+	 * Gets the attributes read for this file.
+	 *
+	 * @return			basic file attributes
+	 */
+	public BasicFileAttributes getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return (attributes == null)? super.isDirectory() : attributes.isDirectory();
+	}
+
+	@Override
+	public boolean isFile() {
+		return (attributes == null)? super.isFile() : attributes.isRegularFile();
+	}
+
+	@Override
+	public long lastModified() {
+		return (attributes == null)? super.lastModified() : attributes.lastModifiedTime().toMillis();
+	}
+
+	@Override
+	public long length() {
+		return (attributes == null)? super.length() : attributes.size();
+	}
+}
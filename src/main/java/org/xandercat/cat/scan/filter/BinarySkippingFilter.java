@@ -0,0 +1,33 @@
+package org.xandercat.cat.scan.filter;
+
+/**
+ * Search filter that reads file content as text and can skip files that turn out to be
+ * binary.  Files are recognized as binary from the first block of content read, so a
+ * skipped file costs no more than that one read.
+ *
+ * The resetSkipped method is called once before any file is searched; the skipped counts
+ * are read once the search has finished.  Files may be skipped concurrently from multiple
+ * threads, so implementations must count skipped files in a thread safe manner.
+ */
+public interface BinarySkippingFilter extends SearchFilter {
+
+	/**
+	 * Prepares the filter for a new search, clearing the skipped counts.
+	 */
+	public void resetSkipped();
+
+	/**
+	 * Gets the number of binary files and archive entries skipped since the last reset.
+	 *
+	 * @return			number of binary files skipped
+	 */
+	public int getSkippedFileCount();
+
+	/**
+	 * Gets the total size of the binary files and archive entries skipped since the last
+	 * reset, where known.
+	 *
+	 * @return			total size of binary files skipped
+	 */
+	public long getSkippedByteCount();
+}
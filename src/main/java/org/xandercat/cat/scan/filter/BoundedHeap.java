@@ -0,0 +1,143 @@
+package org.xandercat.cat.scan.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded priority queue that retains the values with the largest keys offered to it.  Keys
+ * are primitive longs held in an array-backed min heap alongside their values, so the
+ * smallest retained key is always at the head; offering a value costs O(log n) and values
+ * whose keys are too small to be retained are rejected after a single comparison.  To
+ * retain the values with the smallest keys instead, offer negated keys.
+ *
+ * Heaps are not thread safe.
+ *
+ * @param <T>		type of value
+ */
+public class BoundedHeap<T> {
+
+	private final int capacity;
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * Constructs a new bounded heap.
+	 *
+	 * @param capacity		maximum number of values to retain
+	 */
+	public BoundedHeap(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		this.capacity = capacity;
+		int initialCapacity = Math.min(capacity, 16);
+		this.keys = new long[initialCapacity];
+		this.values = new Object[initialCapacity];
+	}
+
+	/**
+	 * Gets the number of values retained.
+	 *
+	 * @return		number of values retained
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Offers a value to the heap.  The value is retained if the heap is not full or if the
+	 * key is larger than the smallest retained key, in which case the value with the smallest
+	 * key is discarded.  Where keys are equal, values offered first are kept.
+	 *
+	 * @param key		key of value
+	 * @param value		value
+	 *
+	 * @return			whether or not the value was retained
+	 */
+	public boolean offer(long key, T value) {
+		if (size < capacity) {
+			if (size == keys.length) {
+				int grownLength = (int) Math.min((long) keys.length * 2, capacity);
+				keys = Arrays.copyOf(keys, grownLength);
+				values = Arrays.copyOf(values, grownLength);
+			}
+			siftUp(size++, key, value);
+			return true;
+		} else if (key > keys[0]) {
+			siftDown(0, key, value);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all values from the heap, in order of descending key.
+	 *
+	 * @param sortedKeys		list to add keys of values to, in the same order as values; may be null
+	 *
+	 * @return					retained values, in order of descending key
+	 */
+	public List<T> drain(List<Long> sortedKeys) {
+		int count = size;
+		long[] drainedKeys = new long[count];
+		Object[] drainedValues = new Object[count];
+		for (int i=count-1; i>=0; i--) {
+			drainedKeys[i] = keys[0];
+			drainedValues[i] = values[0];
+			size--;
+			if (size > 0) {
+				long lastKey = keys[size];
+				Object lastValue = values[size];
+				values[size] = null;
+				siftDown(0, lastKey, lastValue);
+			} else {
+				values[0] = null;
+			}
+		}
+		List<T> sortedValues = new ArrayList<T>(count);
+		for (int i=0; i<count; i++) {
+			@SuppressWarnings("unchecked")
+			T value = (T) drainedValues[i];
+			sortedValues.add(value);
+			if (sortedKeys != null) {
+				sortedKeys.add(Long.valueOf(drainedKeys[i]));
+			}
+		}
+		return sortedValues;
+	}
+
+	private void siftUp(int index, long key, Object value) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			keys[index] = keys[parent];
+			values[index] = values[parent];
+			index = parent;
+		}
+		keys[index] = key;
+		values[index] = value;
+	}
+
+	private void siftDown(int index, long key, Object value) {
+		int half = size >>> 1;
+		while (index < half) {
+			int child = (index << 1) + 1;
+			int right = child + 1;
+			if (right < size && keys[right] < keys[child]) {
+				child = right;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			keys[index] = keys[child];
+			values[index] = values[child];
+			index = child;
+		}
+		keys[index] = key;
+		values[index] = value;
+	}
+}
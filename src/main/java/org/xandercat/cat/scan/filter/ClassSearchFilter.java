@@ -2,10 +2,10 @@ package org.xandercat.cat.scan.filter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.xandercat.cat.scan.result.MatchResultNode;
 import org.xandercat.swing.zenput.annotation.InputField;
@@ -27,8 +27,8 @@ public class ClassSearchFilter extends FileNameSearchFilter {
 	@ValidateRequired
 	private String className;
 	
-	private String classSearchString;
 	private boolean caseSensitive;
+	private volatile ClassQuery classQuery = new ClassQuery(null, false);
 	
 	public ClassSearchFilter() {
 		super();
@@ -65,8 +65,8 @@ public class ClassSearchFilter extends FileNameSearchFilter {
 		return null;
 	}
 	
-	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, ZipInputStream zipInputStream, File zipFile) throws IOException {
-		if (super.searchZipEntry(zipEntry, zipInputStream, zipFile) != null) {
+	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException {
+		if (super.searchZipEntry(zipEntry, inputStream, zipFile) != null) {
 			if (matches(zipEntry.getName())) {
 				// no actual entries required; just need to return non-null result to indicate a match
 				return SearchFilter.EMPTY_MATCH;
@@ -76,30 +76,25 @@ public class ClassSearchFilter extends FileNameSearchFilter {
 	}
 	
 	private void updateClassSearchString() {
-		this.classSearchString = this.className;
+		String classSearchString = this.className;
 		if (this.className != null) {
 			if (this.className.endsWith(".class")) {
-				this.classSearchString = this.classSearchString.substring(0, this.classSearchString.length() - 6);
+				classSearchString = classSearchString.substring(0, classSearchString.length() - 6);
 			}
-			this.classSearchString = this.classSearchString.replaceAll("\\.", "/");
+			classSearchString = classSearchString.replaceAll("\\.", "/");
 			if (this.className.endsWith(".class")) {
-				this.classSearchString = this.classSearchString + ".class";
+				classSearchString = classSearchString + ".class";
 			}
 			if (!this.caseSensitive) {
-				this.classSearchString = this.classSearchString.toLowerCase();
+				classSearchString = classSearchString.toLowerCase();
 			}
 		}
+		this.classQuery = new ClassQuery(classSearchString, this.caseSensitive);
+		resetArchiveResults();
 	}
 	
 	private boolean matches(String name) {
-		if (name == null) {
-			return false;
-		}
-		if (this.caseSensitive) {
-			return name.indexOf(this.classSearchString) >= 0;
-		} else {
-			return name.toLowerCase().indexOf(this.classSearchString) >= 0;
-		}
+		return this.classQuery.matches(name);
 	}
 	
 	public String getName() {
@@ -123,4 +118,29 @@ public class ClassSearchFilter extends FileNameSearchFilter {
 		searchCriteria.put("Case Sensitive", String.valueOf(caseSensitive));
 		return searchCriteria;
 	}
+	
+	/**
+	 * Compiled, immutable class search; safe for use by any number of threads.
+	 */
+	private static class ClassQuery {
+		
+		private final String classSearchString;	// class path string, lower case if not case sensitive
+		private final boolean caseSensitive;
+		
+		public ClassQuery(String classSearchString, boolean caseSensitive) {
+			this.classSearchString = classSearchString;
+			this.caseSensitive = caseSensitive;
+		}
+		
+		public boolean matches(String name) {
+			if (name == null || this.classSearchString == null) {
+				return false;
+			}
+			if (this.caseSensitive) {
+				return name.indexOf(this.classSearchString) >= 0;
+			} else {
+				return name.toLowerCase().indexOf(this.classSearchString) >= 0;
+			}
+		}
+	}
 }
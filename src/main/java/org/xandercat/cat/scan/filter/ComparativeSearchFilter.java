@@ -5,10 +5,28 @@ import java.util.List;
 
 import org.xandercat.cat.scan.result.MatchResultNode;
 
-
+/**
+ * Search filter that compares files against each other, accumulating candidates as the
+ * search runs and producing its results only once all files have been searched.
+ * 
+ * The beginSearch method is called once before any file is searched and the endSearch 
+ * method is called once after all files have been searched.  In between, the search and
+ * processingDirectory methods may be called concurrently from multiple threads, so 
+ * implementations must accumulate their candidates in a thread safe manner.
+ */
 public interface ComparativeSearchFilter extends SearchFilter {
 
+	/**
+	 * Prepares the filter for a new search, discarding any previously accumulated candidates.
+	 * 
+	 * @param rootDirectory		directory being searched
+	 */
 	public void beginSearch(File rootDirectory);
 	
+	/**
+	 * Ends the search, returning result nodes for the accumulated candidates.
+	 * 
+	 * @return			list of match result nodes, or null if there are no results
+	 */
 	public List<MatchResultNode> endSearch();
 }
@@ -0,0 +1,28 @@
+package org.xandercat.cat.scan.filter;
+
+/**
+ * Totals for a directory and everything beneath it, gathered as the directory tree is 
+ * walked.  Totals for a directory are only complete once every subdirectory has been 
+ * walked, so they are rolled up from the deepest directories toward the search directory.
+ * Files and subtrees the walk prunes, whether excluded, ignored or beyond the maximum depth,
+ * are not walked and so are not included in the totals.
+ * 
+ * Instances are immutable.
+ */
+public class DirectoryStatistics {
+
+	private final long bytes;
+	
+	/**
+	 * Constructs new directory statistics.
+	 * 
+	 * @param bytes					total size of all files beneath the directory
+	 */
+	public DirectoryStatistics(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+}
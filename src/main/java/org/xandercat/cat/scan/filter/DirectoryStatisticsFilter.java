@@ -0,0 +1,22 @@
+package org.xandercat.cat.scan.filter;
+
+import java.io.File;
+
+/**
+ * Search filter that makes use of directory totals.  Directory totals are gathered in the
+ * same walk of the directory tree that finds files to search, so filters can report on 
+ * directory sizes without walking any directory a second time.
+ * 
+ * The directorySearched method is called once for every directory walked, after all of
+ * its subdirectories have been walked; it may be called concurrently from multiple threads.
+ */
+public interface DirectoryStatisticsFilter extends SearchFilter {
+
+	/**
+	 * Called once a directory and all of its subdirectories have been walked.
+	 * 
+	 * @param directory			directory walked
+	 * @param statistics		totals for everything beneath the directory
+	 */
+	public void directorySearched(File directory, DirectoryStatistics statistics);
+}
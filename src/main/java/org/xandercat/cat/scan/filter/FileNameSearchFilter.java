@@ -2,22 +2,18 @@ package org.xandercat.cat.scan.filter;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.xandercat.cat.scan.result.MatchResultNode;
-import org.xandercat.swing.util.FileUtil;
 import org.xandercat.swing.zenput.annotation.InputField;
 
 /**
  * Search filter for finding files by file name.  Name patterns should be Operating
- * System style, using only periods and asterisks as special characters.  Name patterns
- * are not case sensitive.
+ * System style, using asterisks and question marks as wildcards.  Name patterns are not
+ * case sensitive.
  * 
  * @author Scott Arnold
  */
@@ -26,7 +22,7 @@ public class FileNameSearchFilter extends ZipSearchFilter {
 	@InputField(title="File Name(s)")
 	private String namePatterns;
 	
-	private final List<Pattern> nameRegExPatterns = new ArrayList<Pattern>();
+	private volatile NamePatterns compiledNamePatterns = NamePatterns.NONE;
 	
 	public FileNameSearchFilter() {
 		setNamePatterns("*.*");
@@ -48,23 +44,12 @@ public class FileNameSearchFilter extends ZipSearchFilter {
 	 */
 	public void setNamePatterns(String namePatterns) {
 		this.namePatterns = namePatterns;
-		this.nameRegExPatterns.clear();
-		String[] individualPatterns = namePatterns.split(",");
-		for (String namePattern : individualPatterns) {
-			String regEx = FileUtil.generateRegularExpression(namePattern.toLowerCase());
-			this.nameRegExPatterns.add(Pattern.compile(regEx));
-		}
+		this.compiledNamePatterns = new NamePatterns(namePatterns);
+		resetArchiveResults();
 	}
 
 	private boolean matches(String fileName) {
-		fileName = fileName.toLowerCase();
-		for (Pattern namePattern : this.nameRegExPatterns) {
-			Matcher nameMatcher = namePattern.matcher(fileName);
-			if (nameMatcher.matches()) {
-				return true;
-			}
-		}		
-		return false;
+		return this.compiledNamePatterns.matches(fileName);
 	}
 	
 	protected boolean fileNameMatches(String fileName) {
@@ -86,7 +71,12 @@ public class FileNameSearchFilter extends ZipSearchFilter {
 	}
 
 	@Override
-	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, ZipInputStream zipInputStream, File zipFile) throws IOException {
+	protected boolean isEntryContentRequired() {
+		return false;
+	}
+
+	@Override
+	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException {
 		if (matches(getZipEntryFileName(zipEntry))) {
 			return SearchFilter.EMPTY_MATCH;
 		} else {
@@ -3,6 +3,7 @@ package org.xandercat.cat.scan.filter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -36,6 +37,31 @@ public abstract class FileSearchFilter implements FileFilter, SearchFilter, Clon
 		}
 	}
 
+	/**
+	 * Gets a description of what is wrong with the current search criteria, for criteria
+	 * that pass field validation but still cannot be searched with, such as a malformed
+	 * regular expression.  Searches should not be started while this returns an error.
+	 *
+	 * @return		error message, or null if the search criteria are usable
+	 */
+	public String getCriteriaError() {
+		return null;
+	}
+
+	/**
+	 * Throws an InterruptedIOException if the current thread has been interrupted, as the 
+	 * threads searching files are when a search is cancelled.  Filters should call this between
+	 * units of work within a file, such as archive entries or buffers of content, so that a
+	 * cancelled search stops promptly even within a large file.
+	 * 
+	 * @throws InterruptedIOException	if the current thread has been interrupted
+	 */
+	protected static void checkInterrupted() throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Search interrupted.");
+		}
+	}
+
 	@Override
 	protected Object clone() throws CloneNotSupportedException {
 		return makeClone();
@@ -0,0 +1,312 @@
+package org.xandercat.cat.scan.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled, immutable form of a comma separated list of file name patterns.  Name patterns
+ * should be Operating System style, using asterisks to match any run of characters and
+ * question marks to match any single character, and are not case sensitive.
+ *
+ * All of the patterns are compiled into one matcher, so that a name is tested once rather
+ * than once per pattern.  Patterns of the form *.ext are looked up by the extension of the
+ * name in a hash table, and patterns without wildcards are looked up by the whole name;
+ * only the remaining patterns are run through a combined automaton, which tracks the
+ * progress of every such pattern at once with one bit per pattern position.  Case is
+ * folded a character at a time, so testing a name allocates nothing.
+ *
+ * Instances can be shared by any number of threads.  Each thread keeps its own automaton
+ * state, which is reused for every name tested.
+ */
+public class NamePatterns {
+
+	/**
+	 * Name patterns that match nothing.
+	 */
+	public static final NamePatterns NONE = new NamePatterns(null);
+
+	private static final char STAR = '*';
+	private static final char ANY = '?';
+	private static final char ACCEPT = 0;	// token of the state reached once a pattern has been matched
+
+	private final String source;
+	private final boolean empty;
+	private final FoldedNameSet extensions;	// extensions of *.ext patterns
+	private final FoldedNameSet names;		// patterns without wildcards
+
+	// automaton for remaining patterns; state i is having matched the tokens before token i of a pattern
+	private final char[] tokens;			// token of each state: a lower case character, STAR, ANY, or ACCEPT
+	private final int words;				// number of longs per state set
+	private final long[] initialStates;
+	private final long[] acceptStates;
+	private final long[] starStates;
+	private final long[] anyStates;
+	private final long[][] asciiStates;		// states whose token is each ASCII character
+	private final ThreadLocal<long[][]> workingStates;
+
+	/**
+	 * Compiles the given comma separated list of name patterns.  A null or blank list
+	 * produces name patterns that match nothing.
+	 *
+	 * @param namePatterns		comma separated list of name patterns
+	 */
+	public NamePatterns(String namePatterns) {
+		this.source = namePatterns;
+		List<String> extensions = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		StringBuilder tokens = new StringBuilder();
+		int patternCount = 0;
+		if (namePatterns != null && namePatterns.trim().length() > 0) {
+			for (String namePattern : namePatterns.split(",")) {
+				patternCount++;
+				String lowerCasePattern = fold(namePattern);
+				int wildcards = countWildcards(lowerCasePattern);
+				if (wildcards == 0) {
+					names.add(lowerCasePattern);
+				} else if (wildcards == 1 && lowerCasePattern.startsWith("*.") && lowerCasePattern.indexOf('.', 2) < 0) {
+					extensions.add(lowerCasePattern.substring(2));
+				} else {
+					char previous = ACCEPT;
+					for (int i=0; i<lowerCasePattern.length(); i++) {
+						char c = lowerCasePattern.charAt(i);
+						if (c != STAR || previous != STAR) {	// consecutive asterisks match the same as one
+							tokens.append(c);
+						}
+						previous = c;
+					}
+					tokens.append(ACCEPT);
+				}
+			}
+		}
+		this.empty = (patternCount == 0);
+		this.extensions = new FoldedNameSet(extensions);
+		this.names = new FoldedNameSet(names);
+		this.tokens = tokens.toString().toCharArray();
+		this.words = (this.tokens.length + 63) / 64;
+		this.initialStates = new long[words];
+		this.acceptStates = new long[words];
+		this.starStates = new long[words];
+		this.anyStates = new long[words];
+		this.asciiStates = new long[128][];
+		boolean patternStart = true;
+		for (int i=0; i<this.tokens.length; i++) {
+			char token = this.tokens[i];
+			if (patternStart) {
+				set(initialStates, i);
+			}
+			patternStart = (token == ACCEPT);
+			if (token == ACCEPT) {
+				set(acceptStates, i);
+			} else if (token == STAR) {
+				set(starStates, i);
+			} else if (token == ANY) {
+				set(anyStates, i);
+			} else if (token < 128) {
+				if (asciiStates[token] == null) {
+					asciiStates[token] = new long[words];
+				}
+				set(asciiStates[token], i);
+			}
+		}
+		closeOverStars(initialStates);
+		this.workingStates = new ThreadLocal<long[][]>() {
+			@Override
+			protected long[][] initialValue() {
+				return new long[3][words];
+			}
+		};
+	}
+
+	private static String fold(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i=0; i<s.length(); i++) {
+			sb.append(Character.toLowerCase(s.charAt(i)));
+		}
+		return sb.toString();
+	}
+
+	private static int countWildcards(String namePattern) {
+		int count = 0;
+		for (int i=0; i<namePattern.length(); i++) {
+			char c = namePattern.charAt(i);
+			if (c == STAR || c == ANY) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void set(long[] states, int state) {
+		states[state >>> 6] |= 1L << state;
+	}
+
+	/**
+	 * Adds to the given states the state after every asterisk state, as an asterisk can match
+	 * nothing.  Consecutive asterisks are compiled as one, so one pass is enough.
+	 *
+	 * @param states		states to close
+	 */
+	private void closeOverStars(long[] states) {
+		long carry = 0;
+		for (int w=0; w<words; w++) {
+			long stars = states[w] & starStates[w];
+			states[w] |= (stars << 1) | carry;
+			carry = stars >>> 63;
+		}
+	}
+
+	/**
+	 * Gets the name patterns as originally provided.
+	 *
+	 * @return		comma separated list of name patterns
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns whether or not there are any name patterns.
+	 *
+	 * @return		whether or not there are no name patterns
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Tests whether the given file name matches any of the name patterns.
+	 *
+	 * @param fileName		file name without any directory path
+	 *
+	 * @return				whether or not the file name matches
+	 */
+	public boolean matches(String fileName) {
+		if (empty) {
+			return false;
+		}
+		if (names.contains(fileName, 0, fileName.length())) {
+			return true;
+		}
+		int dot = fileName.lastIndexOf('.');
+		if (dot >= 0 && extensions.contains(fileName, dot + 1, fileName.length())) {
+			return true;
+		}
+		return tokens.length > 0 && automatonMatches(fileName);
+	}
+
+	private boolean automatonMatches(String fileName) {
+		long[][] working = workingStates.get();
+		long[] states = working[0];
+		long[] next = working[1];
+		long[] charStates = working[2];
+		System.arraycopy(initialStates, 0, states, 0, words);
+		for (int i=0; i<fileName.length(); i++) {
+			char c = Character.toLowerCase(fileName.charAt(i));
+			long[] tokenStates = (c < 128)? asciiStates[c] : nonAsciiStates(c, charStates);
+			// advance every state whose token matches the character; asterisk states also stay put
+			boolean alive = false;
+			long carry = 0;
+			for (int w=0; w<words; w++) {
+				long advancing = states[w] & (anyStates[w] | starStates[w] | ((tokenStates == null)? 0 : tokenStates[w]));
+				next[w] = (advancing << 1) | carry | (states[w] & starStates[w]);
+				carry = advancing >>> 63;
+				alive |= (next[w] != 0);
+			}
+			if (!alive) {
+				return false;
+			}
+			closeOverStars(next);
+			long[] swap = states;
+			states = next;
+			next = swap;
+		}
+		for (int w=0; w<words; w++) {
+			if ((states[w] & acceptStates[w]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the states whose token is the given non-ASCII character.
+	 *
+	 * @param c				lower case character
+	 * @param charStates	set to fill with states
+	 *
+	 * @return				states whose token is the character, or null if there are none
+	 */
+	private long[] nonAsciiStates(char c, long[] charStates) {
+		boolean found = false;
+		for (int w=0; w<words; w++) {
+			charStates[w] = 0;
+		}
+		for (int i=0; i<tokens.length; i++) {
+			if (tokens[i] == c) {
+				set(charStates, i);
+				found = true;
+			}
+		}
+		return found? charStates : null;
+	}
+
+	/**
+	 * Open addressing hash set of lower case strings, which can be probed with any range of
+	 * characters of a string, ignoring case, without creating a string for the range.
+	 */
+	private static class FoldedNameSet {
+
+		private final String[] table;	// null if set is empty
+		private final int mask;
+
+		public FoldedNameSet(List<String> lowerCaseNames) {
+			if (lowerCaseNames.isEmpty()) {
+				this.table = null;
+				this.mask = 0;
+				return;
+			}
+			int capacity = Integer.highestOneBit(lowerCaseNames.size() * 4 - 1) << 1;
+			this.table = new String[capacity];
+			this.mask = capacity - 1;
+			for (String name : lowerCaseNames) {
+				int slot = hash(name, 0, name.length()) & mask;
+				while (table[slot] != null && !table[slot].equals(name)) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = name;
+			}
+		}
+
+		private static int hash(String s, int from, int to) {
+			int hash = 0;
+			for (int i=from; i<to; i++) {
+				hash = 31 * hash + Character.toLowerCase(s.charAt(i));
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+		public boolean contains(String s, int from, int to) {
+			if (table == null) {
+				return false;
+			}
+			for (int slot = hash(s, from, to) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+				if (equalsIgnoringCase(table[slot], s, from, to)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean equalsIgnoringCase(String lowerCaseName, String s, int from, int to) {
+			if (lowerCaseName.length() != to - from) {
+				return false;
+			}
+			for (int i=0; i<lowerCaseName.length(); i++) {
+				if (lowerCaseName.charAt(i) != Character.toLowerCase(s.charAt(from + i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
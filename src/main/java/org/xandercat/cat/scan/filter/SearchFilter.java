@@ -12,6 +12,11 @@ import org.xandercat.cat.scan.result.MatchResultNode;
 /**
  * Basic interface for CatScan search filters.
  * 
+ * A single filter instance is used by all threads of a search, so the processingDirectory
+ * and search methods must be safe to call concurrently.  Filters should compile their
+ * search criteria into immutable form when the criteria are set, and keep any per-file
+ * working state local to the search call or to the calling thread.
+ * 
  * @author Scott Arnold
  */
 public interface SearchFilter {
@@ -44,6 +49,10 @@ public interface SearchFilter {
 	 * signifies a match without any extra details; this interface provides
 	 * a static empty list for this purpose.
 	 * 
+	 * Files found while walking a directory tree are provided as AttributedFiles, which 
+	 * answer type, size, and last modified queries without accessing the file system.
+	 * Filters should use those File methods rather than querying the file system directly.
+	 * 
 	 * @param file		file to search
 	 * 
 	 * @return			list of match results nodes
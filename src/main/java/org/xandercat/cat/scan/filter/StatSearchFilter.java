@@ -2,33 +2,32 @@ package org.xandercat.cat.scan.filter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.scan.result.MatchResultNode;
 import org.xandercat.swing.file.BinaryPrefix;
-import org.xandercat.swing.file.DirectorySizeCache;
-import org.xandercat.swing.file.FileSizeComparator;
 import org.xandercat.swing.util.FileUtil;
 import org.xandercat.swing.zenput.annotation.InputField;
 import org.xandercat.swing.zenput.annotation.ValidateInteger;
 import org.xandercat.swing.zenput.annotation.ValidateRequired;
 
-public class StatSearchFilter extends FileNameSearchFilter implements ComparativeSearchFilter {
+/**
+ * Search filter for finding files or directories that match various extremes, such as the 
+ * largest files or the oldest files.  Candidates are accumulated while the search runs and
+ * reported when the search ends; only the best candidates seen so far are kept, ranked on
+ * a metric read once when the candidate is found.  Directory sizes are totalled in the same
+ * walk that finds files to search.  Accumulation is synchronized, so the filter can be used
+ * by any number of search threads at once.
+ */
+public class StatSearchFilter extends FileNameSearchFilter implements ComparativeSearchFilter, DirectoryStatisticsFilter {
 
-	private static final Logger log = LogManager.getLogger(StatSearchFilter.class);
-	
 	public static enum Stat {
 		LARGEST_FILES("Largest Files", false), 
 		SMALLEST_FILES("Smallest Files", false), 
@@ -56,20 +55,16 @@ public class StatSearchFilter extends FileNameSearchFilter implements Comparativ
 	
 	@InputField(title="Max Results")
 	@ValidateRequired
-	@ValidateInteger(min=1, max=500)
+	@ValidateInteger(min=1, max=50000)
 	private Integer maxResults;
 	
-	private long criticalSize;
-	private final List<File> files = new ArrayList<File>();
-	private FileSizeComparator fileSizeComparator;
-	private DirectorySizeCache directorySizeCache = DirectorySizeCache.getInstance();
-	private DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm");
+	// accumulated search state; guarded by this
+	private BoundedHeap<File> candidates;
 	private File rootDirectory;
 	
 	public StatSearchFilter() {
 		super();
 		this.maxResults = Integer.valueOf(20);
-		this.fileSizeComparator = new FileSizeComparator(false, true);
 		setZipNamePatterns(null);
 		setNamePatterns("*.*");
 	}
@@ -105,74 +100,29 @@ public class StatSearchFilter extends FileNameSearchFilter implements Comparativ
 		return filter;
 	}
 
-	public void beginSearch(File rootDirectory) {
-		this.files.clear();
+	public synchronized void beginSearch(File rootDirectory) {
 		this.rootDirectory = rootDirectory;
-		switch (this.stat) {
-		case LARGEST_FILES:
-		case LARGEST_DIRECTORIES:
-		case LONGEST_PATH_NAMES:
-		case NEWEST_FILES:
-			this.criticalSize = Long.MAX_VALUE;
-			break;
-		case SMALLEST_FILES:
-		case SMALLEST_DIRECTORIES:
-		case OLDEST_FILES:
-			this.criticalSize = Long.MIN_VALUE;
-			break;
-		}
+		this.candidates = new BoundedHeap<File>(this.maxResults.intValue());
 	}
 
-	public List<MatchResultNode> endSearch() {
-		if (this.files.size() == 0) {
+	public synchronized List<MatchResultNode> endSearch() {
+		if (this.candidates == null || this.candidates.size() == 0) {
 			return null;
 		}
-		switch (this.stat) {
-		case LARGEST_FILES:
-		case LARGEST_DIRECTORIES:
-			this.fileSizeComparator.setAscending(false);
-			Collections.sort(this.files, this.fileSizeComparator);
-			break;
-		case SMALLEST_FILES:
-		case SMALLEST_DIRECTORIES:
-			this.fileSizeComparator.setAscending(true);
-			Collections.sort(this.files, this.fileSizeComparator);
-			break;
-		case LONGEST_PATH_NAMES:
-			Collections.sort(this.files, new Comparator<File>() {
-				@Override
-				public int compare(File o1, File o2) {
-					return o2.getAbsolutePath().length() - o1.getAbsolutePath().length();
-				}
-			});
-			break;
-		case OLDEST_FILES:
-			Collections.sort(this.files, new Comparator<File>() {
-				@Override
-				public int compare(File f1, File f2) {
-					return (f1.lastModified() - f2.lastModified()) > 0? 1 : -1;
-				}
-			});
-			break;
-		case NEWEST_FILES:
-			Collections.sort(this.files, new Comparator<File>() {
-				@Override
-				public int compare(File f1, File f2) {
-					return (f1.lastModified() - f2.lastModified()) > 0? -1 : 1;
-				}
-			});
-			break;			
-		}
-		
-		DirectorySizeCache directorySizeCache = DirectorySizeCache.getInstance();
+		List<Long> keys = new ArrayList<Long>(this.candidates.size());
+		List<File> files = this.candidates.drain(keys);
+		DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm"); // SimpleDateFormat is not thread safe; not shared
 		List<MatchResultNode> matches = new ArrayList<MatchResultNode>();
-		for (File file : this.files) {
+		for (int i=0; i<files.size(); i++) {
+			File file = files.get(i);
+			long metric = isSmallestFirst()? -keys.get(i).longValue() : keys.get(i).longValue();
 			StringBuilder sb = new StringBuilder();
 			if (stat == Stat.OLDEST_FILES || stat == Stat.NEWEST_FILES) {
-				sb.append(dateFormat.format(new Date(file.lastModified())));
+				sb.append(dateFormat.format(new Date(metric)));
+			} else if (stat != Stat.LONGEST_PATH_NAMES) {
+				sb.append(FileUtil.formatFileSize(metric, BinaryPrefix.GiB));
 			} else {
-				long size = this.stat.isDirectorySearch()? directorySizeCache.loadDirectorySize(file).getBytes() : file.length();
-				sb.append(FileUtil.formatFileSize(size, BinaryPrefix.GiB));
+				sb.append(FileUtil.formatFileSize(file.length(), BinaryPrefix.GiB));
 			}
 			sb.append(" -- ");
 			if (file.getAbsolutePath().startsWith(rootDirectory.getAbsolutePath()) && !file.equals(rootDirectory)) {
@@ -183,158 +133,51 @@ public class StatSearchFilter extends FileNameSearchFilter implements Comparativ
 			}
 			matches.add(new MatchResultNode(sb.toString(), file));
 		}
+		this.candidates = null;
 		return matches;
 	}
+	
+	/**
+	 * Returns whether the stat favors small values, in which case candidates are keyed by
+	 * the negated metric.
+	 * 
+	 * @return		whether or not smaller metrics rank first
+	 */
+	private boolean isSmallestFirst() {
+		return this.stat == Stat.SMALLEST_FILES || this.stat == Stat.SMALLEST_DIRECTORIES || this.stat == Stat.OLDEST_FILES;
+	}
 		
-	private void internalSearchFile(File file) throws IOException {
-		long fileLength = this.stat.isDirectorySearch()? directorySizeCache.loadDirectorySize(file).getBytes() : file.length();
-		if (this.files.size() < this.maxResults.intValue()) {
-			this.files.add(file);
-			switch (this.stat) {
-			case LARGEST_FILES:
-			case LARGEST_DIRECTORIES:
-				if (fileLength < this.criticalSize) {
-					this.criticalSize = fileLength;
-				}
-				break;
-			case SMALLEST_FILES:
-			case SMALLEST_DIRECTORIES:
-				if (fileLength > this.criticalSize) {
-					this.criticalSize = fileLength;
-				}
-				break;
-			case LONGEST_PATH_NAMES:
-				if (file.getAbsolutePath().length() < this.criticalSize) {
-					this.criticalSize = file.getAbsolutePath().length();
-				}
-				break;
-			case OLDEST_FILES:
-				if (file.lastModified() > this.criticalSize) {
-					this.criticalSize = file.lastModified();
-				}
-				break;
-			case NEWEST_FILES:
-				if (file.lastModified() < this.criticalSize) {
-					this.criticalSize = file.lastModified();
-				}
-				break;
-			}
-		} else {
-			switch (this.stat) {
-			case LARGEST_FILES:
-			case LARGEST_DIRECTORIES:
-				if (fileLength > this.criticalSize) {
-					this.files.add(file);
-					boolean found = false;
-					long newCriticalSize = Long.MAX_VALUE;
-					for (Iterator<File> iter = this.files.iterator(); iter.hasNext();) {
-						File rfile = iter.next();
-						long rFileLength = this.stat.isDirectorySearch()? directorySizeCache.loadDirectorySize(rfile).getBytes() : rfile.length();
-						if (!found && rFileLength == this.criticalSize) {
-							iter.remove();
-							found = true;
-						} else {
-							if (rFileLength < newCriticalSize) {
-								newCriticalSize = rFileLength;
-							}
-						}
-					}
-					this.criticalSize = newCriticalSize;
-				}
-				break;
-			case LONGEST_PATH_NAMES:
-				int pathLength = file.getAbsolutePath().length();
-				if (pathLength > this.criticalSize) {
-					this.files.add(file);
-					boolean found = false;
-					long newCriticalSize = Long.MAX_VALUE;
-					for (Iterator<File> iter = this.files.iterator(); iter.hasNext();) {
-						File rFile = iter.next();
-						long rPathLength = rFile.getAbsolutePath().length();
-						if (!found && rPathLength == this.criticalSize) {
-							iter.remove();
-							found = true;
-						} else {
-							if (rPathLength < newCriticalSize) {
-								newCriticalSize = rPathLength;
-							}
-						}
-					}
-					this.criticalSize = newCriticalSize;
-				}
-				break;
-			case SMALLEST_FILES:
-			case SMALLEST_DIRECTORIES:
-				if (fileLength < this.criticalSize) {
-					this.files.add(file);
-					boolean found = false;
-					long newCriticalSize = 0;
-					for (Iterator<File> iter = this.files.iterator(); iter.hasNext();) {
-						File rfile = iter.next();
-						long rFileLength = this.stat.isDirectorySearch()? directorySizeCache.loadDirectorySize(rfile).getBytes() : rfile.length();
-						if (!found && rFileLength == this.criticalSize) {
-							iter.remove();
-							found = true;
-						} else {
-							if (rFileLength > newCriticalSize) {
-								newCriticalSize = rFileLength;
-							}
-						}
-					}						
-					this.criticalSize = newCriticalSize;
-				}
-				break;
-			case OLDEST_FILES:
-				if (file.lastModified() < this.criticalSize) {
-					this.files.add(file);
-					boolean found = false;
-					long newCriticalSize = 0;
-					for (Iterator<File> iter = this.files.iterator(); iter.hasNext();) {
-						File rfile = iter.next();
-						if (!found && rfile.lastModified() == this.criticalSize) {
-							iter.remove();
-							found = true;
-						} else {
-							if (rfile.lastModified() > newCriticalSize) {
-								newCriticalSize = rfile.lastModified();
-							}
-						}
-					}						
-					this.criticalSize = newCriticalSize;
-				}
-				break;
-			case NEWEST_FILES:
-				if (file.lastModified() > this.criticalSize) {
-					this.files.add(file);
-					boolean found = false;
-					long newCriticalSize = Long.MAX_VALUE;
-					for (Iterator<File> iter = this.files.iterator(); iter.hasNext();) {
-						File rfile = iter.next();
-						if (!found && rfile.lastModified() == this.criticalSize) {
-							iter.remove();
-							found = true;
-						} else {
-							if (rfile.lastModified() < newCriticalSize) {
-								newCriticalSize = rfile.lastModified();
-							}
-						}
-					}						
-					this.criticalSize = newCriticalSize;
-				}
-				break;				
+	private void internalSearchFile(File file) {
+		// capture the metric once; candidates are ranked on it and never examined on disk again
+		long metric;
+		switch (this.stat) {
+		case LONGEST_PATH_NAMES:
+			metric = file.getAbsolutePath().length();
+			break;
+		case OLDEST_FILES:
+		case NEWEST_FILES:
+			metric = file.lastModified();
+			break;
+		default:
+			metric = file.length();
+			break;
+		}
+		offer(file, metric);
+	}
+	
+	private void offer(File file, long metric) {
+		long key = isSmallestFirst()? -metric : metric;
+		synchronized (this) {
+			if (this.candidates != null) {
+				this.candidates.offer(key, file);
 			}
-		}		
+		}
 	}
 	
 	@Override
-	public void processingDirectory(File directory) {
-		super.processingDirectory(directory);
+	public void directorySearched(File directory, DirectoryStatistics statistics) {
 		if (this.stat.isDirectorySearch() && fileNameMatches(directory.getName())) {
-			try {
-				internalSearchFile(directory);
-			} catch (IOException e) {
-				log.error(e);
-			}
+			offer(directory, statistics.getBytes());
 		}
 	}
 
@@ -347,8 +190,13 @@ public class StatSearchFilter extends FileNameSearchFilter implements Comparativ
 	}
 
 	@Override
-	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, ZipInputStream zipInputStream, File zipFile) throws IOException {
-		if (!this.stat.isDirectorySearch() && super.searchZipEntry(zipEntry, zipInputStream, zipFile) != null) {
+	protected boolean isArchiveResultReusable() {
+		return false;	// statistics are collected for every copy of an archive
+	}
+
+	@Override
+	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException {
+		if (!this.stat.isDirectorySearch() && super.searchZipEntry(zipEntry, inputStream, zipFile) != null) {
 			internalSearchFile(new ZipEntryFile(zipFile, zipEntry));
 		}
 		return null;
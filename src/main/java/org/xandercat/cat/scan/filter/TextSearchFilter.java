@@ -2,15 +2,30 @@ package org.xandercat.cat.scan.filter;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.xandercat.cat.scan.result.MatchResultNode;
+import org.xandercat.cat.scan.text.AhoCorasickMatcher;
+import org.xandercat.cat.scan.text.BinarySniffingInputStream;
+import org.xandercat.cat.scan.text.ByteMatcher;
+import org.xandercat.cat.scan.text.HorspoolMatcher;
+import org.xandercat.cat.scan.text.LineScanner;
+import org.xandercat.cat.scan.text.RequiredLiterals;
+import org.xandercat.cat.scan.text.Trigrams;
 import org.xandercat.swing.zenput.annotation.InputField;
 import org.xandercat.swing.zenput.annotation.ValidateRequired;
 
@@ -20,19 +35,88 @@ import org.xandercat.swing.zenput.annotation.ValidateRequired;
  * 
  * @author Scott Arnold
  */
-public class TextSearchFilter extends FileNameSearchFilter implements Cloneable {
+public class TextSearchFilter extends FileNameSearchFilter implements BinarySkippingFilter, TrigramIndexedFilter, Cloneable {
+	
+	/**
+	 * How the search string is interpreted.  Regular expressions are matched against one line
+	 * at a time.
+	 */
+	public static enum SearchMode {
+		LITERAL("Literal Text"),
+		ANY_LITERAL("Any of Comma Separated Text"),
+		REGEX("Regular Expression");
+		private String label;
+		private SearchMode(String label) {
+			this.label = label;
+		}
+		public String toString() {
+			return label;
+		}
+	}
+	
+	/**
+	 * How matches within a file are reported.  Other than for ALL_LINES, reading of a file
+	 * or archive entry stops as soon as enough has been read to report its matches.
+	 */
+	public static enum MatchReport {
+		ALL_LINES("All Matching Lines"),
+		FIRST_LINE("First Matching Line"),
+		FIRST_LINES("First N Matching Lines"),
+		COUNT("Count of Matching Lines");
+		private String label;
+		private MatchReport(String label) {
+			this.label = label;
+		}
+		public String toString() {
+			return label;
+		}
+	}
+	
+	/**
+	 * How files with binary content are handled.  Binary content is recognized from the first
+	 * block of a file or archive entry, before any of it is searched.
+	 */
+	public static enum BinaryFiles {
+		SKIP("Skip"),
+		REPORT_MATCH("Report Files That Match"),
+		SEARCH_AS_TEXT("Search as Text");
+		private String label;
+		private BinaryFiles(String label) {
+			this.label = label;
+		}
+		public String toString() {
+			return label;
+		}
+	}
+	
+	private static final String BINARY_MATCH = "Binary file matches";
 	
 	@InputField(title="Search String")
 	@ValidateRequired
 	private String searchString;
 	
+	@InputField(title="Search Mode")
+	private SearchMode searchMode = SearchMode.LITERAL;
+	
 	@InputField(title="Case Sensitive")
 	private boolean caseSensitive;
 	
-	private String internalSearchString;
+	@InputField(title="Report")
+	private MatchReport matchReport = MatchReport.ALL_LINES;
+	
+	@InputField(title="Max Lines Per File")
+	private Integer maxLines;	// only used when reporting the first N matching lines, so validated with the criteria
+	
+	@InputField(title="Binary Files")
+	private BinaryFiles binaryFiles = BinaryFiles.SKIP;
+	
+	private volatile TextQuery textQuery = new TextQuery(null, SearchMode.LITERAL, false, MatchReport.ALL_LINES, 1, BinaryFiles.SKIP);
+	private final AtomicInteger skippedFileCount = new AtomicInteger();
+	private final AtomicLong skippedByteCount = new AtomicLong();
 	
 	public TextSearchFilter() {
 		super();
+		this.maxLines = Integer.valueOf(10);
 		setNamePatterns("*.txt");
 	}
 	
@@ -45,6 +129,15 @@ public class TextSearchFilter extends FileNameSearchFilter implements Cloneable
 		updateInternalSearchString();
 	}
 
+	public SearchMode getSearchMode() {
+		return searchMode;
+	}
+
+	public void setSearchMode(SearchMode searchMode) {
+		this.searchMode = searchMode;
+		updateInternalSearchString();
+	}
+
 	public boolean isCaseSensitive() {
 		return caseSensitive;
 	}
@@ -54,26 +147,265 @@ public class TextSearchFilter extends FileNameSearchFilter implements Cloneable
 		updateInternalSearchString();
 	}
 
+	public MatchReport getMatchReport() {
+		return matchReport;
+	}
+
+	public void setMatchReport(MatchReport matchReport) {
+		this.matchReport = matchReport;
+		updateInternalSearchString();
+	}
+
+	public Integer getMaxLines() {
+		return maxLines;
+	}
+
+	public void setMaxLines(Integer maxLines) {
+		this.maxLines = maxLines;
+		updateInternalSearchString();
+	}
+
+	public BinaryFiles getBinaryFiles() {
+		return binaryFiles;
+	}
+
+	public void setBinaryFiles(BinaryFiles binaryFiles) {
+		this.binaryFiles = binaryFiles;
+		updateInternalSearchString();
+	}
+
 	private void updateInternalSearchString() {
-		this.internalSearchString = (this.caseSensitive || this.searchString == null)? this.searchString : this.searchString.toLowerCase();
+		this.textQuery = new TextQuery(this.searchString, this.searchMode, this.caseSensitive, this.matchReport, 
+				(this.maxLines == null)? 1 : this.maxLines.intValue(), this.binaryFiles);
+		resetArchiveResults();
 	}
 	
+	@Override
+	public String getCriteriaError() {
+		if (textQuery.error == null && matchReport == MatchReport.FIRST_LINES && (maxLines == null || maxLines.intValue() < 1)) {
+			return "Max Lines Per File must be at least 1 when reporting the first N matching lines.";
+		}
+		return textQuery.error;
+	}
+
+	@Override
+	public void resetSkipped() {
+		skippedFileCount.set(0);
+		skippedByteCount.set(0);
+	}
+
+	@Override
+	public int getSkippedFileCount() {
+		return skippedFileCount.get();
+	}
+
+	@Override
+	public long getSkippedByteCount() {
+		return skippedByteCount.get();
+	}
+
+	@Override
+	public List<byte[]> getRequiredText() {
+		TextQuery textQuery = this.textQuery;
+		return (textQuery.error == null)? textQuery.requiredText : null;
+	}
+
+	@Override
+	public String getContentScope(File file) {
+		if (isArchive(file)) {
+			return "archive:" + getZipNamePatterns() + ":" + getNamePatterns();
+		}
+		return fileNameMatches(file.getName())? "" : null;
+	}
+
+	/**
+	 * Reads the trigrams of a file, or of the entries of an archive that would be searched.
+	 * The trigrams of every entry are collected together, so an archive is ruled out only if
+	 * none of its entries can match.  Binary content is not indexed, as whether it is searched
+	 * depends on the search criteria.
+	 * 
+	 * @param file		file to read
+	 * 
+	 * @return			distinct trigrams in ascending order, or null if any of the content is binary
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public int[] readTrigrams(File file) throws IOException {
+		final Trigrams trigrams = Trigrams.forCurrentThread();
+		final boolean[] binary = new boolean[1];
+		int[] collected = null;
+		try {
+			if (isArchive(file)) {
+				readArchiveEntries(file, (zipEntry, inputStream) -> {
+					if (!binary[0] && fileNameMatches(getZipEntryFileName(zipEntry))) {
+						binary[0] = !addTrigrams(trigrams, inputStream);
+					}
+				});
+			} else {
+				try (InputStream inputStream = new FileInputStream(file)) {
+					binary[0] = !addTrigrams(trigrams, inputStream);
+				}
+			}
+		} finally {
+			collected = trigrams.finish();
+		}
+		return binary[0]? null : collected;
+	}
+
+	private static boolean addTrigrams(Trigrams trigrams, InputStream inputStream) throws IOException {
+		BinarySniffingInputStream sniffingInputStream = new BinarySniffingInputStream(inputStream);
+		if (sniffingInputStream.isBinary()) {
+			return false;
+		}
+		trigrams.add(sniffingInputStream);
+		return true;
+	}
+
 	private List<MatchResultNode> internalSearchFile(File file) throws IOException {
+		try (InputStream inputStream = new FileInputStream(file)) {
+			return internalSearchStream(inputStream, file.length());
+		}
+	}
+	
+	/**
+	 * Searches a stream of text.  The stream is read to the end, or until it is known there 
+	 * is nothing more to report, but is not closed.  Callers should close the stream without
+	 * reading any further, so that the rest of a file or archive entry is never read.
+	 * 
+	 * @param inputStream		stream of text encoded in the platform default charset
+	 * @param size				size of stream content, or -1 if unknown
+	 * 
+	 * @return					list of matches, or null if there are no matches
+	 * 
+	 * @throws IOException
+	 */
+	private List<MatchResultNode> internalSearchStream(InputStream inputStream, long size) throws IOException {
+		// read the query once so that the whole stream is searched with consistent settings
+		TextQuery textQuery = this.textQuery;
+		if (textQuery.error != null) {
+			throw new IOException(textQuery.error);
+		}
+		if (textQuery.binaryFiles != BinaryFiles.SEARCH_AS_TEXT) {
+			BinarySniffingInputStream sniffingInputStream = new BinarySniffingInputStream(inputStream);
+			if (sniffingInputStream.isBinary()) {
+				if (textQuery.binaryFiles == BinaryFiles.SKIP) {
+					skippedFileCount.incrementAndGet();
+					skippedByteCount.addAndGet(Math.max(size, 0));
+					return null;
+				}
+				return internalSearchBinary(sniffingInputStream, textQuery);
+			}
+			inputStream = sniffingInputStream;
+		}
+		if (textQuery.byteMatcher != null) {
+			return internalSearchBytes(inputStream, textQuery);
+		}
 		List<MatchResultNode> matchResults = null;
-		try(BufferedReader reader = new BufferedReader(new FileReader(file))) {
-			String line = null;
-			int row = 0;
-			while ((line = reader.readLine()) != null) {
-				row++;
-				int col = caseSensitive? line.indexOf(internalSearchString) : line.toLowerCase().indexOf(internalSearchString);
-				if (col >= 0) {
-					if (matchResults == null) {
-						matchResults = new ArrayList<MatchResultNode>();
-					}
-					matchResults.add(new MatchResultNode(getMatchMessage(row, col, line, searchString)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, textQuery.charset));
+		String line = null;
+		int row = 0;
+		int count = 0;
+		while ((line = reader.readLine()) != null) {
+			row++;
+			checkInterrupted();
+			int[] span = textQuery.findInLine(line);
+			if (span != null) {
+				count++;
+				if (textQuery.matchReport == MatchReport.COUNT) {
+					continue;
+				}
+				if (matchResults == null) {
+					matchResults = new ArrayList<MatchResultNode>();
+				}
+				matchResults.add(new MatchResultNode(getMatchMessage(row, span[0], span[1], line)));
+				if (count == textQuery.lineLimit) {
+					break;
 				}
 			}
 		}
+		if (textQuery.matchReport == MatchReport.COUNT) {
+			return getCountResult(count);
+		}
+		return matchResults;
+	}
+	
+	/**
+	 * Searches encoded text without decoding it; only lines containing a match are decoded.
+	 * For regular expressions, the byte matcher finds lines containing text any match must
+	 * contain, and the regular expression is then applied to just those lines.
+	 * 
+	 * @param inputStream		stream of text encoded in the query charset
+	 * @param textQuery			query to search with
+	 * 
+	 * @return					list of matches, or null if there are no matches
+	 * 
+	 * @throws IOException
+	 */
+	private List<MatchResultNode> internalSearchBytes(InputStream inputStream, final TextQuery textQuery) throws IOException {
+		if (textQuery.matchReport == MatchReport.COUNT && textQuery.pattern == null) {
+			return getCountResult(LineScanner.forCurrentThread().countMatchingLines(inputStream, textQuery.byteMatcher));
+		}
+		final int[] count = new int[1];
+		final List<MatchResultNode> matchResults = new ArrayList<MatchResultNode>();
+		LineScanner.forCurrentThread().scan(inputStream, textQuery.byteMatcher, textQuery.charset, (row, line, col) -> {
+			int[] span = (textQuery.searchMode == SearchMode.LITERAL)? new int[] { col, col + textQuery.searchString.length() } : textQuery.findInLine(line);
+			if (span == null) {
+				if (textQuery.pattern != null) {
+					return true;	// line contains required text, but does not match the regular expression
+				}
+				span = new int[] { col, col };
+			}
+			count[0]++;
+			if (textQuery.matchReport == MatchReport.COUNT) {
+				return true;
+			}
+			matchResults.add(new MatchResultNode(getMatchMessage(row, span[0], span[1], line)));
+			return matchResults.size() < textQuery.lineLimit;
+		});
+		if (textQuery.matchReport == MatchReport.COUNT) {
+			return getCountResult(count[0]);
+		}
+		return matchResults.isEmpty()? null : matchResults;
+	}
+	
+	/**
+	 * Searches binary content, reporting only whether it matches.  Literal text is matched 
+	 * against the bytes without regard to lines, which binary content may have few of.
+	 * 
+	 * @param inputStream		stream of binary content
+	 * @param textQuery			query to search with
+	 * 
+	 * @return					binary match result, or null if there is no match
+	 * 
+	 * @throws IOException
+	 */
+	private List<MatchResultNode> internalSearchBinary(InputStream inputStream, TextQuery textQuery) throws IOException {
+		boolean matched = false;
+		if (textQuery.byteMatcher != null && textQuery.pattern == null) {
+			matched = LineScanner.forCurrentThread().contains(inputStream, textQuery.byteMatcher);
+		} else {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, textQuery.charset));
+			String line = null;
+			while (!matched && (line = reader.readLine()) != null) {
+				checkInterrupted();
+				matched = textQuery.findInLine(line) != null;
+			}
+		}
+		if (!matched) {
+			return null;
+		}
+		List<MatchResultNode> matchResults = new ArrayList<MatchResultNode>(1);
+		matchResults.add(new MatchResultNode(BINARY_MATCH));
+		return matchResults;
+	}
+	
+	private List<MatchResultNode> getCountResult(int count) {
+		if (count == 0) {
+			return null;
+		}
+		List<MatchResultNode> matchResults = new ArrayList<MatchResultNode>(1);
+		matchResults.add(new MatchResultNode((count == 1)? "1 matching line" : count + " matching lines"));
 		return matchResults;
 	}
 	
@@ -86,20 +418,24 @@ public class TextSearchFilter extends FileNameSearchFilter implements Cloneable
 	}
 
 	@Override
-	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, ZipInputStream zipInputStream, File zipFile) throws IOException {
-		if (super.searchZipEntry(zipEntry, zipInputStream, zipFile) != null) {
-			File file = extractFileFromZip(zipEntry, zipInputStream);
-			return internalSearchFile(file);
+	protected boolean isEntryContentRequired() {
+		return true;
+	}
+
+	@Override
+	protected List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException {
+		if (super.searchZipEntry(zipEntry, inputStream, zipFile) != null) {
+			return internalSearchStream(inputStream, zipEntry.getSize());
 		}
 		return null;
 	}
 
-	private String getMatchMessage(int row, int col, String line, String searchString) {
+	private String getMatchMessage(int row, int col, int end, String line) {
 		final int surroundChars = 20;
 		StringBuilder sb = new StringBuilder();
 		sb.append("Line ").append(row).append(", Column ").append(col).append(": ");
-		int start = Math.max(col-surroundChars, 0);
-		int stop = Math.min(col+searchString.length()+surroundChars, line.length());
+		int start = Math.min(Math.max(col-surroundChars, 0), line.length());
+		int stop = Math.max(Math.min(end+surroundChars, line.length()), start);
 		if (start > 0) {
 			sb.append("...");
 		}
@@ -119,7 +455,11 @@ public class TextSearchFilter extends FileNameSearchFilter implements Cloneable
 	public FileSearchFilter makeClone() {
 		TextSearchFilter clone = new TextSearchFilter();
 		clone.setCaseSensitive(isCaseSensitive());
+		clone.setSearchMode(getSearchMode());
 		clone.setSearchString(getSearchString());
+		clone.setMatchReport(getMatchReport());
+		clone.setMaxLines(getMaxLines());
+		clone.setBinaryFiles(getBinaryFiles());
 		clone.setNamePatterns(getNamePatterns());
 		clone.setZipNamePatterns(getZipNamePatterns());
 		return clone;
@@ -129,7 +469,241 @@ public class TextSearchFilter extends FileNameSearchFilter implements Cloneable
 	public Map<String, String> getSearchCriteria() {
 		Map<String, String> searchCriteria = super.getSearchCriteria();
 		searchCriteria.put("Search Text", searchString);
+		searchCriteria.put("Search Mode", searchMode.toString());
 		searchCriteria.put("Case Sensitive", String.valueOf(caseSensitive));
+		searchCriteria.put("Report", matchReport.toString());
+		if (matchReport == MatchReport.FIRST_LINES) {
+			searchCriteria.put("Max Lines Per File", String.valueOf(maxLines));
+		}
+		searchCriteria.put("Binary Files", binaryFiles.toString());
 		return searchCriteria;
 	}
+	
+	/**
+	 * Compiled, immutable text search; safe for use by any number of threads.
+	 * 
+	 * Text is read in the platform default charset, as FileReader would read it.  When
+	 * that charset can be scanned at byte level, the literal search strings are encoded once
+	 * and matched directly against file bytes, with ASCII case folding done during comparison;
+	 * a single string is found with a Horspool matcher and several with an Aho-Corasick
+	 * matcher.  For regular expressions, the literal text every match must contain is matched
+	 * against bytes the same way, and the regular expression is only applied to lines that 
+	 * contain it.  Otherwise, including for case insensitive searches for non-ASCII letters 
+	 * whose case folding cannot be done on bytes, and for regular expressions without any 
+	 * required literal text, text is decoded and searched line by line.
+	 * 
+	 * A few non-ASCII letters fold to ASCII letters, which folding bytes as ASCII would miss.
+	 * Lower casing turns the Kelvin sign into k, and the dotted capital I into i followed by a
+	 * combining dot, so a case insensitive literal also matches text with a Kelvin sign for any
+	 * k, or a dotted capital I for a final i.  Unicode case insensitive regular expressions
+	 * further match the dotless i for i and the long s for s.  These letters are kept on the
+	 * byte path by adding each spelling of a literal that uses them as another literal to
+	 * match; only literals with too many such spellings are searched line by line.
+	 * 
+	 * Unless binary files are to be searched as text, the first block of every file is
+	 * checked for binary content before anything is searched.
+	 * 
+	 * The encoded literals are also the text a trigram index is asked for, so the index is
+	 * only used for searches whose bytes can be searched directly.
+	 */
+	private static class TextQuery {
+		
+		private static final int MAX_SPELLINGS = 64;	// spellings of a literal with non-ASCII letters above which text is decoded
+		
+		private final String searchString;
+		private final SearchMode searchMode;
+		private final List<String> internalLiterals;	// literal search strings, lower case if not case sensitive
+		private final Pattern pattern;					// null unless searching for a regular expression
+		private final String error;						// null unless search string is invalid
+		private final boolean caseSensitive;
+		private final Charset charset;
+		private final List<byte[]> requiredText;		// encoded literals; null if bytes cannot be searched directly
+		private final ByteMatcher byteMatcher;			// null if bytes cannot be searched directly
+		private final MatchReport matchReport;
+		private final int lineLimit;					// number of matching lines after which reading stops
+		private final BinaryFiles binaryFiles;
+		
+		public TextQuery(String searchString, SearchMode searchMode, boolean caseSensitive, MatchReport matchReport, int maxLines, BinaryFiles binaryFiles) {
+			this.searchString = searchString;
+			this.searchMode = searchMode;
+			this.caseSensitive = caseSensitive;
+			this.charset = Charset.defaultCharset();
+			List<String> literals = null;
+			Pattern pattern = null;
+			String error = null;
+			if (searchString == null || searchString.length() == 0) {
+				literals = Collections.emptyList();
+			} else if (searchMode == SearchMode.REGEX) {
+				try {
+					pattern = Pattern.compile(searchString, caseSensitive? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+					literals = RequiredLiterals.find(searchString);
+				} catch (PatternSyntaxException e) {
+					error = "Invalid regular expression: " + e.getDescription();
+				}
+			} else if (searchMode == SearchMode.ANY_LITERAL) {
+				literals = new ArrayList<String>();
+				for (String literal : searchString.split(",")) {
+					literal = literal.trim();
+					if (literal.length() > 0 && !literals.contains(literal)) {
+						literals.add(literal);
+					}
+				}
+				if (literals.isEmpty()) {
+					error = "No search text given.";
+				}
+			} else {
+				literals = Collections.singletonList(searchString);
+			}
+			this.pattern = pattern;
+			this.error = error;
+			if (literals == null || pattern != null) {
+				this.internalLiterals = null;
+			} else {
+				this.internalLiterals = new ArrayList<String>(literals.size());
+				for (String literal : literals) {
+					this.internalLiterals.add(caseSensitive? literal : literal.toLowerCase());
+				}
+			}
+			this.requiredText = encodeLiterals(literals, caseSensitive, pattern != null, this.charset);
+			this.byteMatcher = createByteMatcher(this.requiredText, caseSensitive);
+			this.matchReport = matchReport;
+			this.binaryFiles = binaryFiles;
+			switch (matchReport) {
+			case FIRST_LINE:
+				this.lineLimit = 1;
+				break;
+			case FIRST_LINES:
+				this.lineLimit = maxLines;
+				break;
+			default:
+				this.lineLimit = Integer.MAX_VALUE;
+				break;
+			}
+		}
+		
+		/**
+		 * Finds the first match within a line of text.
+		 * 
+		 * @param line		line of text
+		 * 
+		 * @return			start and end index of first match, or null if line does not match
+		 */
+		public int[] findInLine(String line) {
+			if (pattern != null) {
+				Matcher matcher = pattern.matcher(line);
+				return matcher.find()? new int[] { matcher.start(), matcher.end() } : null;
+			}
+			String searchLine = caseSensitive? line : line.toLowerCase();
+			int[] span = null;
+			for (String literal : internalLiterals) {
+				int col = searchLine.indexOf(literal);
+				if (col >= 0 && (span == null || col < span[0])) {
+					span = new int[] { col, col + literal.length() };
+				}
+			}
+			return span;
+		}
+		
+		/**
+		 * Encodes literal search strings for searching bytes directly.
+		 * 
+		 * @param literals			literal search strings
+		 * @param caseSensitive		whether or not search is case sensitive
+		 * @param unicodeCase		whether or not literals are from a Unicode case insensitive regular expression
+		 * @param charset			charset text is encoded in
+		 * 
+		 * @return					encoded literals, or null if bytes cannot be searched directly for them
+		 */
+		private static List<byte[]> encodeLiterals(List<String> literals, boolean caseSensitive, boolean unicodeCase, Charset charset) {
+			if (literals == null || literals.isEmpty() || !LineScanner.supports(charset)) {
+				return null;
+			}
+			List<byte[]> needles = new ArrayList<byte[]>(literals.size());
+			for (String literal : literals) {
+				for (int i=0; i<literal.length(); i++) {
+					char c = literal.charAt(i);
+					if (c == '\n' || c == '\r') {
+						return null; // cannot match within a single line; leave to line by line search
+					}
+					if (!caseSensitive && c > 127 && (Character.toLowerCase(c) != c || Character.toUpperCase(c) != c)) {
+						return null;
+					}
+				}
+				if (!charset.newEncoder().canEncode(literal)) {
+					return null;
+				}
+				needles.add(literal.getBytes(charset));
+				if (!caseSensitive) {
+					List<String> spellings = getNonAsciiSpellings(literal, unicodeCase);
+					if (spellings == null) {
+						return null;
+					}
+					for (String spelling : spellings) {
+						// text in a charset without the letter cannot contain it
+						if (charset.newEncoder().canEncode(spelling)) {
+							needles.add(spelling.getBytes(charset));
+						}
+					}
+				}
+			}
+			return Collections.unmodifiableList(needles);
+		}
+		
+		/**
+		 * Gets the other spellings of a literal that a case insensitive search matches, using
+		 * non-ASCII letters that fold to the ASCII letters of the literal.
+		 * 
+		 * @param literal			literal search string
+		 * @param unicodeCase		whether or not literal is from a Unicode case insensitive regular expression
+		 * 
+		 * @return					other spellings of literal; null if there are too many
+		 */
+		private static List<String> getNonAsciiSpellings(String literal, boolean unicodeCase) {
+			List<String> spellings = new ArrayList<String>();
+			spellings.add(literal);
+			for (int i=0; i<literal.length(); i++) {
+				String letters = null;
+				switch (Character.toLowerCase(literal.charAt(i))) {
+				case 'k':
+					letters = "\u212A";		// Kelvin sign, lower cased to k
+					break;
+				case 'i':
+					if (unicodeCase) {
+						letters = "\u0130\u0131";	// dotted capital I and dotless i
+					} else if (i == literal.length() - 1) {
+						letters = "\u0130";	// lower cased to i followed by a combining dot, so only matches a final i
+					}
+					break;
+				case 's':
+					if (unicodeCase) {
+						letters = "\u017F";		// long s
+					}
+					break;
+				}
+				if (letters == null) {
+					continue;
+				}
+				for (int j=spellings.size()-1; j>=0; j--) {
+					String spelling = spellings.get(j);
+					for (int l=0; l<letters.length(); l++) {
+						spellings.add(spelling.substring(0, i) + letters.charAt(l) + spelling.substring(i + 1));
+					}
+				}
+				if (spellings.size() > MAX_SPELLINGS) {
+					return null;
+				}
+			}
+			return spellings.subList(1, spellings.size());
+		}
+		
+		private static ByteMatcher createByteMatcher(List<byte[]> needles, boolean caseSensitive) {
+			if (needles == null) {
+				return null;
+			}
+			if (needles.size() == 1) {
+				return new HorspoolMatcher(needles.get(0), !caseSensitive);
+			}
+			return new AhoCorasickMatcher(needles, !caseSensitive);
+		}
+	}
 }
@@ -0,0 +1,46 @@
+package org.xandercat.cat.scan.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Search filter whose matches require file content to contain literal text, so that a
+ * trigram index of file content can rule files out without reading them.  Content is
+ * indexed as the filter would search it: a plain file as a whole, and an archive as the
+ * content of the entries that would be searched, including those of nested archives.
+ *
+ * Methods may be called concurrently from multiple threads.
+ */
+public interface TrigramIndexedFilter extends SearchFilter {
+
+	/**
+	 * Gets the literal text a file must contain to match, as encoded bytes with no line
+	 * breaks.  A file can only match if it contains at least one of the literals, with ASCII
+	 * letters in either case if the search is not case sensitive.
+	 *
+	 * @return			encoded literals, or null if any file might match
+	 */
+	public List<byte[]> getRequiredText();
+
+	/**
+	 * Gets a description of which content of the given file is searched.  Content indexed for
+	 * a file can only be used with criteria that give the same description.
+	 *
+	 * @param file		file to be searched
+	 *
+	 * @return			description of content searched; null if the file is matched without reading its content
+	 */
+	public String getContentScope(File file);
+
+	/**
+	 * Reads the content of the given file that is searched, collecting its trigrams.
+	 *
+	 * @param file		file to read
+	 *
+	 * @return			distinct trigrams in ascending order, or null if any of the content is binary and is not indexed
+	 *
+	 * @throws IOException
+	 */
+	public int[] readTrigrams(File file) throws IOException;
+}
@@ -1,34 +1,70 @@
 package org.xandercat.cat.scan.filter;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.scan.index.ArchiveIndex;
+import org.xandercat.cat.scan.index.IndexedEntry;
+import org.xandercat.cat.scan.result.ArchiveEntryNode;
 import org.xandercat.cat.scan.result.MatchResultNode;
-import org.xandercat.swing.util.FileUtil;
 import org.xandercat.swing.zenput.annotation.InputField;
 
 /**
  * Abstract search filter capable of searching through ZIP archives.
  * 
+ * Archives on disk are read through their central directory, so entries can be listed 
+ * without inflating them; an entry is only inflated when a subclass reads its content.
+ * Archives nested within other archives, and archives whose central directory cannot be
+ * read, are streamed instead.  Filters that do not read entry content search archives from
+ * the archive index, so an archive is only read if it has changed since it was last indexed.
+ * Filters that do read entry content remember the matches found within recently searched
+ * archives by content identity, so that copies of an archive are usually only searched once.
+ * 
  * @author Scott Arnold
  */
 public abstract class ZipSearchFilter extends FileSearchFilter {
 	
+	private static final Logger log = LogManager.getLogger(ZipSearchFilter.class);
+	
 	@InputField(title="ZIP File Name(s)")
 	private String zipNamePatterns;
 	
-	private final List<Pattern> zipNamePatternsRegEx = new ArrayList<Pattern>();
+	private static final InputStream EMPTY_INPUT_STREAM = new ByteArrayInputStream(new byte[0]);
+	
+	private static final ThreadLocal<byte[]> COPY_BUFFERS = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64 * 1024];
+		}
+	};
+	
+	private volatile NamePatterns compiledZipNamePatterns = NamePatterns.NONE;
+	
+	private static final int MAX_ARCHIVE_RESULTS = 10000;		// archives remembered before the memo is cleared
+	private static final int MAX_ARCHIVE_RESULT_NODES = 100;	// larger results are not remembered
+	
+	// matches found within archives searched so far, keyed by archive content identity; empty if no matches
+	private final Map<String, List<MatchResultNode>> archiveResults = new ConcurrentHashMap<String, List<MatchResultNode>>();
 	
 	public ZipSearchFilter() {
 		super();
@@ -36,17 +72,20 @@ public abstract class ZipSearchFilter extends FileSearchFilter {
 	}
 	
 	/**
-	 * Searches a ZIP entry / ZIP input stream for the given search string with the given case sensitivity.
+	 * Searches a ZIP entry.  The input stream provides the content of the entry; for archives
+	 * read through their central directory, the entry is not inflated unless the stream is 
+	 * read, so subclasses that only need the entry name should leave the stream untouched.
+	 * The stream is closed by the caller.
 	 *
 	 * @param zipEntry			ZIP entry
-	 * @param zipInputStream	ZIP input stream
-	 * @param zipFile			ZIP file ZIP entry and ZIP input stream are from
+	 * @param inputStream		input stream for content of ZIP entry
+	 * @param zipFile			ZIP file ZIP entry is from
 	 * 
 	 * @return					list of matches
 	 * 
 	 * @throws IOException
 	 */
-	protected abstract List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, ZipInputStream zipInputStream, File zipFile) throws IOException;
+	protected abstract List<MatchResultNode> searchZipEntry(ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException;
 	
 	/**
 	 * Searches a file for the given search string with the given case sensitivity.
@@ -59,109 +98,478 @@ public abstract class ZipSearchFilter extends FileSearchFilter {
 	 */
 	protected abstract List<MatchResultNode> searchFile(File file) throws IOException;
 	
-	/**
-	 * Extracts the file for the given ZIP entry of the given ZIP input stream into a temporary file.
-	 * This method is provided as a convenience for subclasses.  By using this method, ZIP entries
-	 * can be searched in the same manner as regular files.
-	 *  
-	 * @param zipEntry			ZIP entry for file to search
-	 * @param zipInputStream	ZIP input stream containing file
-	 * 
-	 * @return					temporary file storing contents of file from ZIP entry
-	 * 
-	 * @throws IOException
-	 */
-	protected File extractFileFromZip(ZipEntry zipEntry, ZipInputStream zipInputStream) throws IOException {
-		String zipEntryFileName = getZipEntryFileName(zipEntry);
-		// temp file prefix (tempName) must be at least 3 characters; make sure that is always the case with cs_ prefix
-		String tempName = "cs_" + FileUtil.getFileNameLessExtension(zipEntryFileName);
-		String tempExtension = FileUtil.getExtension(zipEntryFileName);
-		File extractedFile = File.createTempFile(tempName, tempExtension);
-		extractedFile.deleteOnExit();
-		FileOutputStream fileOutputStream = new FileOutputStream(extractedFile);
-		for (int c = zipInputStream.read(); c!= -1; c = zipInputStream.read()) {
-			fileOutputStream.write(c);
-		}
-		zipInputStream.closeEntry();
-		fileOutputStream.close();
-		return extractedFile;
-	}
-	
 	public String getZipNamePatterns() {
 		return this.zipNamePatterns;
 	}
 
 	public void setZipNamePatterns(String zipNamePatterns) {
 		this.zipNamePatterns = zipNamePatterns;
-		this.zipNamePatternsRegEx.clear();
-		if (zipNamePatterns != null && zipNamePatterns.trim().length() > 0) {
-			String[] individualPatterns = zipNamePatterns.split(",");
-			for (String zipNamePattern : individualPatterns) {
-				String regEx = FileUtil.generateRegularExpression(zipNamePattern.toLowerCase());
-				this.zipNamePatternsRegEx.add(Pattern.compile(regEx));
-			}
-		}
+		this.compiledZipNamePatterns = new NamePatterns(zipNamePatterns);
+		resetArchiveResults();
 	}
 	
 	private boolean matches(String fileName) {
-		fileName = fileName.toLowerCase();
-		for (Pattern zipNamePattern : this.zipNamePatternsRegEx) {
-			if (zipNamePattern.matcher(fileName).matches()) {
-				return true;
-			}
-		}		
-		return false;
+		return this.compiledZipNamePatterns.matches(fileName);
+	}
+	
+	/**
+	 * Returns whether or not this filter reads the content of ZIP entries.  Filters that only
+	 * need the name, size, and time of ZIP entries should return false, which allows archives
+	 * to be searched from the archive index instead of being read.  Defaults to true.
+	 * 
+	 * @return		whether or not content of ZIP entries is read
+	 */
+	protected boolean isEntryContentRequired() {
+		return true;
 	}
 	
 	public List<MatchResultNode> search(File file) throws IOException {
 		if (matches(file.getName())) {
+			if (!isEntryContentRequired() && ArchiveIndex.isEnabled()) {
+				return searchIndexedArchive(file);
+			}
 			return searchArchive(file);
 		} else {
 			return searchFile(file);
 		}
 	}
 	
+	/**
+	 * Returns whether or not the matches found within an archive depend only on the content
+	 * of the archive, so that the matches found within one copy of an archive can be reused
+	 * for every other copy.  Filters that record information about archive locations or that
+	 * collect results across files should return false.  Defaults to true.
+	 * 
+	 * @return		whether or not matches found within an archive can be reused for copies of the archive
+	 */
+	protected boolean isArchiveResultReusable() {
+		return true;
+	}
+	
+	/**
+	 * Discards matches remembered for archives searched so far.  Must be called whenever the
+	 * search criteria change.
+	 */
+	protected void resetArchiveResults() {
+		this.archiveResults.clear();
+	}
+	
 	private List<MatchResultNode> searchArchive(File file) throws IOException {
+		String identity = isArchiveResultReusable()? getArchiveIdentity(file) : null;
+		if (identity != null) {
+			List<MatchResultNode> archiveResult = this.archiveResults.get(identity);
+			if (archiveResult != null) {
+				return archiveResult.isEmpty()? null : copyResults(archiveResult);
+			}
+		}
 		List<MatchResultNode> matchResults = new ArrayList<MatchResultNode>();
 		MatchResultNode tempResult = new MatchResultNode(file.getName());	// temporary holder
-		FileInputStream fileInputStream = new FileInputStream(file);
-		searchArchive(tempResult, fileInputStream, file);
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(file);
+		} catch (ZipException ze) {
+			// central directory is missing or corrupt; entries may still be readable by streaming
+		}
+		if (zip != null) {
+			try (ZipFile archive = zip) {
+				searchArchive(tempResult, archive, file);
+			}
+		} else {
+			try (InputStream fileInputStream = new FileInputStream(file)) {
+				searchArchive(tempResult, fileInputStream, file);
+			}
+		}
 		@SuppressWarnings("unchecked")
 		Enumeration<MatchResultNode> childrenEnum = (Enumeration<MatchResultNode>) tempResult.children();
 		while (childrenEnum.hasMoreElements()) {
 			matchResults.add(childrenEnum.nextElement());
 		}
-		try {
-			fileInputStream.close();
-		} catch (Exception e) { 
-			// nothing really needs to be done here
+		if (identity != null) {
+			rememberArchiveResult(identity, matchResults);
 		}
 		return (matchResults.size() > 0)? matchResults : null;
 	}
 	
+	/**
+	 * Searches an archive using its central directory.  Entries are inflated only if read.
+	 * 
+	 * @param parentMatchResult		node to add matches to
+	 * @param archive				archive to search
+	 * @param zipFile				file for archive
+	 * 
+	 * @throws IOException
+	 */
+	private void searchArchive(MatchResultNode parentMatchResult, ZipFile archive, File zipFile) throws IOException {
+		Enumeration<? extends ZipEntry> zipEntries = archive.entries();
+		while (zipEntries.hasMoreElements()) {
+			checkInterrupted();
+			ZipEntry zipEntry = zipEntries.nextElement();
+			if (matches(getZipEntryFileName(zipEntry))) {
+				// nested archives have no central directory of their own on disk; stream them
+				try (InputStream nestedInputStream = new LazyEntryInputStream(archive, zipEntry)) {
+					searchNestedArchive(parentMatchResult, zipEntry, nestedInputStream, zipFile);
+				}
+			} else {
+				try (InputStream entryInputStream = new LazyEntryInputStream(archive, zipEntry)) {
+					addZipEntryMatches(parentMatchResult, zipEntry, searchZipEntry(zipEntry, entryInputStream, zipFile));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Searches an archive by streaming it.  Every entry is inflated as the stream passes it.
+	 * 
+	 * @param parentMatchResult		node to add matches to
+	 * @param inputStream			stream of archive content
+	 * @param zipFile				file for archive, or for outermost archive if archive is nested
+	 * 
+	 * @throws IOException
+	 */
 	private void searchArchive(MatchResultNode parentMatchResult, InputStream inputStream, File zipFile) throws IOException {
 		ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+		InputStream entryInputStream = new FilterInputStream(zipInputStream) {
+			@Override
+			public void close() {
+				// entries of the stream are closed as the next entry is reached
+			}
+		};
 		ZipEntry zipEntry = null;
 		while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+			checkInterrupted();
 			if (matches(getZipEntryFileName(zipEntry))) {
-				MatchResultNode nestedMatchResult = new MatchResultNode(zipEntry.getName());
-				searchArchive(nestedMatchResult, zipInputStream, zipFile);
+				searchNestedArchive(parentMatchResult, zipEntry, entryInputStream, zipFile);
+			} else {
+				addZipEntryMatches(parentMatchResult, zipEntry, searchZipEntry(zipEntry, entryInputStream, zipFile));
+			}
+		}
+	}
+	
+	/**
+	 * Searches an archive nested within another archive.  If a copy of the nested archive has
+	 * already been searched, the matches found in that copy are reused and the nested archive
+	 * is not read.
+	 * 
+	 * @param parentMatchResult		node to add matches to
+	 * @param zipEntry				entry of nested archive within its parent archive
+	 * @param inputStream			stream of nested archive content
+	 * @param zipFile				file for outermost archive
+	 * 
+	 * @throws IOException
+	 */
+	private void searchNestedArchive(MatchResultNode parentMatchResult, ZipEntry zipEntry, InputStream inputStream, File zipFile) throws IOException {
+		// CRC and size are only known up front for streamed entries without a data descriptor
+		String identity = (isArchiveResultReusable() && zipEntry.getCrc() != -1 && zipEntry.getSize() != -1)? 
+				"entry:" + zipEntry.getSize() + ":" + zipEntry.getCrc() : null;
+		MatchResultNode nestedMatchResult = new ArchiveEntryNode(zipEntry.getName());
+		List<MatchResultNode> archiveResult = (identity == null)? null : this.archiveResults.get(identity);
+		if (archiveResult != null) {
+			for (MatchResultNode matchResult : copyResults(archiveResult)) {
+				nestedMatchResult.add(matchResult);
+			}
+		} else {
+			searchArchive(nestedMatchResult, inputStream, zipFile);
+			if (identity != null) {
+				@SuppressWarnings("unchecked")
+				List<MatchResultNode> children = Collections.list((Enumeration<MatchResultNode>) nestedMatchResult.children());
+				rememberArchiveResult(identity, children);
+			}
+		}
+		if (nestedMatchResult.getChildCount() > 0) {
+			parentMatchResult.add(nestedMatchResult);
+		}
+	}
+	
+	/**
+	 * Remembers the matches found within an archive.  Archives without matches cost only a
+	 * map entry, archives with many matches are not remembered, and the memo is cleared once
+	 * it holds too many archives, so that memory use stays bounded however many archives are
+	 * searched.
+	 * 
+	 * @param identity			identity of archive content
+	 * @param matchResults		matches found within archive
+	 */
+	private void rememberArchiveResult(String identity, List<MatchResultNode> matchResults) {
+		List<MatchResultNode> archiveResult = Collections.emptyList();
+		if (!matchResults.isEmpty()) {
+			int nodes = 0;
+			for (MatchResultNode matchResult : matchResults) {
+				nodes += countNodes(matchResult, MAX_ARCHIVE_RESULT_NODES - nodes);
+				if (nodes > MAX_ARCHIVE_RESULT_NODES) {
+					return;
+				}
+			}
+			archiveResult = copyResults(matchResults);
+		}
+		if (this.archiveResults.size() >= MAX_ARCHIVE_RESULTS) {
+			this.archiveResults.clear();
+		}
+		this.archiveResults.put(identity, archiveResult);
+	}
+	
+	private static int countNodes(MatchResultNode matchResult, int limit) {
+		int nodes = 1;
+		for (int i=0; i<matchResult.getChildCount() && nodes <= limit; i++) {
+			nodes += countNodes((MatchResultNode) matchResult.getChildAt(i), limit - nodes);
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Gets an identity for the content of an archive file, made up of the file length and a
+	 * digest of the central directory.  As the central directory records the CRC and size of
+	 * every entry, archives with the same identity have the same content.  Only the end of
+	 * the file is read.
+	 * 
+	 * @param file		archive file
+	 * 
+	 * @return			identity of archive content, or null if the central directory could not be located
+	 * 
+	 * @throws IOException
+	 */
+	private static String getArchiveIdentity(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			long length = randomAccessFile.length();
+			// end of central directory record is 22 bytes followed by a comment of up to 65535 bytes
+			byte[] tail = new byte[(int) Math.min(length, 22 + 0xFFFF)];
+			randomAccessFile.seek(length - tail.length);
+			randomAccessFile.readFully(tail);
+			for (int i=tail.length-22; i>=0; i--) {
+				if (tail[i] == 'P' && tail[i+1] == 'K' && tail[i+2] == 5 && tail[i+3] == 6) {
+					long directorySize = readUnsignedInt(tail, i + 12);
+					long directoryOffset = readUnsignedInt(tail, i + 16);
+					if (directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > length) {
+						return null;	// ZIP64 or self-extracting archive; not worth the trouble
+					}
+					MessageDigest digest;
+					try {
+						digest = MessageDigest.getInstance("SHA-1");
+					} catch (NoSuchAlgorithmException e) {
+						return null;
+					}
+					byte[] buffer = COPY_BUFFERS.get();
+					randomAccessFile.seek(directoryOffset);
+					for (long remaining = directorySize; remaining > 0; ) {
+						int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (read < 0) {
+							return null;
+						}
+						digest.update(buffer, 0, read);
+						remaining -= read;
+					}
+					digest.update(tail, i, tail.length - i);
+					StringBuilder sb = new StringBuilder("file:").append(length).append(':');
+					for (byte b : digest.digest()) {
+						sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+					}
+					return sb.toString();
+				}
+			}
+			return null;
+		}
+	}
+	
+	private static long readUnsignedInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFFL) | ((bytes[offset+1] & 0xFFL) << 8) | ((bytes[offset+2] & 0xFFL) << 16) | ((bytes[offset+3] & 0xFFL) << 24);
+	}
+	
+	/**
+	 * Copies the given matches, giving every copied node its own identity so that copies can
+	 * be placed in more than one location of a result tree.
+	 * 
+	 * @param matchResults		matches to copy
+	 * 
+	 * @return					copy of matches
+	 */
+	private static List<MatchResultNode> copyResults(List<MatchResultNode> matchResults) {
+		List<MatchResultNode> copies = new ArrayList<MatchResultNode>(matchResults.size());
+		for (MatchResultNode matchResult : matchResults) {
+			copies.add(copyResult(matchResult));
+		}
+		return copies;
+	}
+	
+	private static MatchResultNode copyResult(MatchResultNode matchResult) {
+		MatchResultNode copy = (matchResult instanceof ArchiveEntryNode)? 
+				new ArchiveEntryNode(((ArchiveEntryNode) matchResult).getEntryName()) 
+				: new MatchResultNode(String.valueOf(matchResult.getUserObject()), matchResult.getFile());
+		for (int i=0; i<matchResult.getChildCount(); i++) {
+			copy.add(copyResult((MatchResultNode) matchResult.getChildAt(i)));
+		}
+		return copy;
+	}
+	
+	private List<MatchResultNode> searchIndexedArchive(File file) throws IOException {
+		ArchiveIndex archiveIndex = ArchiveIndex.getInstance();
+		String nestedArchivePatterns = getZipNamePatterns();
+		List<IndexedEntry> indexedEntries = archiveIndex.getEntries(file, nestedArchivePatterns);
+		if (indexedEntries == null) {
+			// read before listing, so that an archive changed while it is listed is indexed again
+			long size = file.length();
+			long lastModified = file.lastModified();
+			indexedEntries = indexArchive(file);
+			archiveIndex.putEntries(file, size, lastModified, nestedArchivePatterns, indexedEntries);
+		}
+		List<MatchResultNode> matchResults = new ArrayList<MatchResultNode>();
+		MatchResultNode tempResult = new MatchResultNode(file.getName());	// temporary holder
+		searchIndexedEntries(tempResult, indexedEntries, file);
+		@SuppressWarnings("unchecked")
+		Enumeration<MatchResultNode> childrenEnum = (Enumeration<MatchResultNode>) tempResult.children();
+		while (childrenEnum.hasMoreElements()) {
+			matchResults.add(childrenEnum.nextElement());
+		}
+		return (matchResults.size() > 0)? matchResults : null;
+	}
+	
+	private void searchIndexedEntries(MatchResultNode parentMatchResult, List<IndexedEntry> indexedEntries, File zipFile) throws IOException {
+		for (IndexedEntry indexedEntry : indexedEntries) {
+			checkInterrupted();
+			if (indexedEntry.isNestedArchive()) {
+				MatchResultNode nestedMatchResult = new ArchiveEntryNode(indexedEntry.getName());
+				searchIndexedEntries(nestedMatchResult, indexedEntry.getNestedEntries(), zipFile);
 				if (nestedMatchResult.getChildCount() > 0) {
 					parentMatchResult.add(nestedMatchResult);
 				}
 			} else {
-				List<MatchResultNode> zipMatchResults = searchZipEntry(zipEntry, zipInputStream, zipFile);
-				if (zipMatchResults != null) {
-					MatchResultNode matchResult = new MatchResultNode(zipEntry.getName());
-					for (MatchResultNode zipMatchResult : zipMatchResults) {
-						matchResult.add(zipMatchResult);
+				ZipEntry zipEntry = indexedEntry.toZipEntry();
+				addZipEntryMatches(parentMatchResult, zipEntry, searchZipEntry(zipEntry, EMPTY_INPUT_STREAM, zipFile));
+			}
+		}
+	}
+	
+	/**
+	 * Lists the entries of an archive for the archive index, in the same manner the archive
+	 * would be searched.
+	 * 
+	 * @param file		archive file
+	 * 
+	 * @return			entries of archive
+	 * 
+	 * @throws IOException
+	 */
+	private List<IndexedEntry> indexArchive(File file) throws IOException {
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(file);
+		} catch (ZipException ze) {
+			// central directory is missing or corrupt; entries may still be readable by streaming
+		}
+		if (zip != null) {
+			try (ZipFile archive = zip) {
+				List<IndexedEntry> indexedEntries = new ArrayList<IndexedEntry>(archive.size());
+				Enumeration<? extends ZipEntry> zipEntries = archive.entries();
+				while (zipEntries.hasMoreElements()) {
+					checkInterrupted();
+					ZipEntry zipEntry = zipEntries.nextElement();
+					if (matches(getZipEntryFileName(zipEntry))) {
+						try (InputStream nestedInputStream = archive.getInputStream(zipEntry)) {
+							indexedEntries.add(new IndexedEntry(zipEntry, indexArchive(nestedInputStream)));
+						}
+					} else {
+						indexedEntries.add(new IndexedEntry(zipEntry, null));
 					}
-					parentMatchResult.add(matchResult);
 				}
+				return indexedEntries;
+			}
+		} else {
+			try (InputStream fileInputStream = new FileInputStream(file)) {
+				return indexArchive(fileInputStream);
 			}
 		}
 	}
 	
+	private List<IndexedEntry> indexArchive(InputStream inputStream) throws IOException {
+		ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+		List<ZipEntry> zipEntries = new ArrayList<ZipEntry>();
+		List<List<IndexedEntry>> nestedEntries = new ArrayList<List<IndexedEntry>>();
+		ZipEntry zipEntry = null;
+		while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+			checkInterrupted();
+			zipEntries.add(zipEntry);
+			nestedEntries.add(matches(getZipEntryFileName(zipEntry))? indexArchive(zipInputStream) : null);
+		}
+		// entry sizes of streamed entries may only be known once the stream has moved past them
+		List<IndexedEntry> indexedEntries = new ArrayList<IndexedEntry>(zipEntries.size());
+		for (int i=0; i<zipEntries.size(); i++) {
+			indexedEntries.add(new IndexedEntry(zipEntries.get(i), nestedEntries.get(i)));
+		}
+		return indexedEntries;
+	}
+
+	/**
+	 * Returns whether or not the given file is searched as an archive.
+	 *
+	 * @param file		file to be searched
+	 *
+	 * @return			whether or not file is an archive
+	 */
+	protected boolean isArchive(File file) {
+		return matches(file.getName());
+	}
+
+	/**
+	 * Reads the entries of an archive in the same manner the archive would be searched, passing
+	 * every entry other than a nested archive to the given handler; nested archives are read
+	 * the same way.  Entries are only inflated if the handler reads them.  This is provided for
+	 * subclasses that index archive content.
+	 *
+	 * @param file			archive file
+	 * @param handler		handler for entries
+	 *
+	 * @throws IOException
+	 */
+	protected void readArchiveEntries(File file, EntryHandler handler) throws IOException {
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile(file);
+		} catch (ZipException ze) {
+			// central directory is missing or corrupt; entries may still be readable by streaming
+		}
+		if (zip != null) {
+			try (ZipFile archive = zip) {
+				Enumeration<? extends ZipEntry> zipEntries = archive.entries();
+				while (zipEntries.hasMoreElements()) {
+					checkInterrupted();
+					ZipEntry zipEntry = zipEntries.nextElement();
+					try (InputStream entryInputStream = new LazyEntryInputStream(archive, zipEntry)) {
+						if (matches(getZipEntryFileName(zipEntry))) {
+							readArchiveEntries(entryInputStream, handler);
+						} else {
+							handler.entryRead(zipEntry, entryInputStream);
+						}
+					}
+				}
+			}
+		} else {
+			try (InputStream fileInputStream = new FileInputStream(file)) {
+				readArchiveEntries(fileInputStream, handler);
+			}
+		}
+	}
+
+	private void readArchiveEntries(InputStream inputStream, EntryHandler handler) throws IOException {
+		ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+		ZipEntry zipEntry = null;
+		while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+			checkInterrupted();
+			if (matches(getZipEntryFileName(zipEntry))) {
+				readArchiveEntries(zipInputStream, handler);
+			} else {
+				handler.entryRead(zipEntry, zipInputStream);
+			}
+		}
+	}
+
+	private void addZipEntryMatches(MatchResultNode parentMatchResult, ZipEntry zipEntry, List<MatchResultNode> zipMatchResults) {
+		if (zipMatchResults != null) {
+			MatchResultNode matchResult = new ArchiveEntryNode(zipEntry.getName());
+			for (MatchResultNode zipMatchResult : zipMatchResults) {
+				matchResult.add(zipMatchResult);
+			}
+			parentMatchResult.add(matchResult);
+		}
+	}
+	
 	protected String getZipEntryFileName(ZipEntry zipEntry) {
 		String fileName = zipEntry.getName();
 		int i = fileName.lastIndexOf("/");
@@ -189,4 +597,76 @@ public abstract class ZipSearchFilter extends FileSearchFilter {
 		searchCriteria.put("ZIP Name Pattern(s)", zipNamePatterns);
 		return searchCriteria;
 	}
+	
+	/**
+	 * Handler for the entries of an archive read by readArchiveEntries(File, EntryHandler).
+	 */
+	protected static interface EntryHandler {
+
+		/**
+		 * Handles an entry of an archive.  The input stream is closed by the caller.
+		 *
+		 * @param zipEntry			ZIP entry
+		 * @param inputStream		input stream for content of ZIP entry
+		 *
+		 * @throws IOException
+		 */
+		public void entryRead(ZipEntry zipEntry, InputStream inputStream) throws IOException;
+	}
+
+	/**
+	 * Input stream for an entry of an archive read through its central directory.  The entry
+	 * is not opened, and therefore not inflated, until the stream is first read.
+	 */
+	private static class LazyEntryInputStream extends InputStream {
+		
+		private final ZipFile archive;
+		private final ZipEntry zipEntry;
+		private InputStream inputStream;
+		private boolean closed;
+		
+		public LazyEntryInputStream(ZipFile archive, ZipEntry zipEntry) {
+			this.archive = archive;
+			this.zipEntry = zipEntry;
+		}
+		
+		private InputStream open() throws IOException {
+			if (this.closed) {
+				throw new IOException("Stream closed");
+			}
+			if (this.inputStream == null) {
+				this.inputStream = this.archive.getInputStream(this.zipEntry);
+			}
+			return this.inputStream;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return open().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return open().read(b, off, len);
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return open().skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return open().available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.closed = true;
+			if (this.inputStream != null) {
+				this.inputStream.close();
+				this.inputStream = null;
+			}
+		}
+	}
 }
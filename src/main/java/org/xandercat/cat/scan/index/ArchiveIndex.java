@@ -0,0 +1,275 @@
+package org.xandercat.cat.scan.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent index of archive entry names.  Archives are keyed by absolute path; a recorded
+ * listing is only used while the size and modification time of the archive are unchanged,
+ * so archives that change are re-indexed the next time they are searched.  Listings recorded
+ * within a couple of seconds of their archive changing are not trusted, as the archive could
+ * change again without its size or modification time moving on.  Listings also record the
+ * nested archive name patterns they were made with, as those determine which entries were
+ * listed as nested archives.
+ *
+ * Listings are held in memory in encoded form, with each entry name stored as the length
+ * of the prefix it shares with the previous name followed by the remaining characters, and
+ * are only decoded when used.  The index is loaded from disk on first use and saved with
+ * saveIfModified(); it is stored in the directory given by the catscan.indexDir system
+ * property, or in .catscan under the user home directory by default.  Indexing can be
+ * disabled by setting the catscan.archiveIndex system property to false.
+ *
+ * The index can be used by any number of threads.
+ */
+public class ArchiveIndex {
+
+	private static final Logger log = LogManager.getLogger(ArchiveIndex.class);
+
+	private static final int FORMAT_VERSION = 1;
+	private static final String INDEX_FILE_NAME = "archive-index.dat";
+	private static final long UNTRUSTED = Long.MIN_VALUE;	// recorded time of listings that are not to be used
+	private static final long RACY_INTERVAL = 2000;
+
+	/**
+	 * Directory the index is stored in.
+	 */
+	public static final File INDEX_DIRECTORY = new File(System.getProperty("catscan.indexDir",
+			System.getProperty("user.home") + File.separator + ".catscan"));
+
+	private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("catscan.archiveIndex", "true"));
+
+	private static final ArchiveIndex instance = new ArchiveIndex(new File(INDEX_DIRECTORY, INDEX_FILE_NAME));
+
+	private final File indexFile;
+	private final Map<String, ArchiveRecord> records = new ConcurrentHashMap<String, ArchiveRecord>();
+	private volatile boolean loaded;
+	private volatile boolean modified;
+
+	/**
+	 * Gets the shared archive index.
+	 *
+	 * @return		archive index
+	 */
+	public static ArchiveIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns whether or not archive indexing is enabled.
+	 *
+	 * @return		whether or not archive indexing is enabled
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	private ArchiveIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Gets the recorded entries of the given archive.
+	 *
+	 * @param archive					archive file
+	 * @param nestedArchivePatterns		name patterns used to identify nested archives
+	 *
+	 * @return							entries of archive, or null if archive has not been indexed or has changed since
+	 */
+	public List<IndexedEntry> getEntries(File archive, String nestedArchivePatterns) {
+		ensureLoaded();
+		ArchiveRecord record = records.get(archive.getAbsolutePath());
+		if (record == null || record.size != archive.length() || record.lastModified != archive.lastModified()
+				|| !record.nestedArchivePatterns.equals(String.valueOf(nestedArchivePatterns))) {
+			return null;
+		}
+		try {
+			return decodeEntries(new DataInputStream(new ByteArrayInputStream(record.encodedEntries)));
+		} catch (IOException e) {
+			log.error("Unable to decode index entries for " + archive.getAbsolutePath(), e);
+			records.remove(archive.getAbsolutePath());
+			return null;
+		}
+	}
+
+	/**
+	 * Records the entries of the given archive, replacing any previously recorded entries.
+	 *
+	 * @param archive					archive file
+	 * @param size						size of the archive, read before it was listed
+	 * @param lastModified				last modified time of the archive, read before it was listed
+	 * @param nestedArchivePatterns		name patterns used to identify nested archives
+	 * @param entries					entries of archive
+	 */
+	public void putEntries(File archive, long size, long lastModified, String nestedArchivePatterns, List<IndexedEntry> entries) {
+		ensureLoaded();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			encodeEntries(new DataOutputStream(bytes), entries);
+		} catch (IOException e) {
+			log.error("Unable to encode index entries for " + archive.getAbsolutePath(), e);
+			return;
+		}
+		if (System.currentTimeMillis() - lastModified < RACY_INTERVAL) {
+			lastModified = UNTRUSTED;
+		}
+		records.put(archive.getAbsolutePath(), new ArchiveRecord(size, lastModified,
+				String.valueOf(nestedArchivePatterns), bytes.toByteArray()));
+		modified = true;
+	}
+
+	/**
+	 * Saves the index if it has been modified since it was loaded or last saved.  Records
+	 * for archives that no longer exist are dropped.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void saveIfModified() throws IOException {
+		if (!modified) {
+			return;
+		}
+		modified = false;
+		if (!INDEX_DIRECTORY.isDirectory() && !INDEX_DIRECTORY.mkdirs()) {
+			throw new IOException("Unable to create index directory " + INDEX_DIRECTORY.getAbsolutePath());
+		}
+		File tempFile = File.createTempFile("archive-index", ".tmp", INDEX_DIRECTORY);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+				out.writeInt(FORMAT_VERSION);
+				for (Map.Entry<String, ArchiveRecord> entry : records.entrySet()) {
+					if (!new File(entry.getKey()).isFile()) {
+						records.remove(entry.getKey());
+						continue;
+					}
+					ArchiveRecord record = entry.getValue();
+					out.writeBoolean(true);
+					out.writeUTF(entry.getKey());
+					out.writeLong(record.size);
+					out.writeLong(record.lastModified);
+					out.writeUTF(record.nestedArchivePatterns);
+					out.writeInt(record.encodedEntries.length);
+					out.write(record.encodedEntries);
+				}
+				out.writeBoolean(false);
+			}
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Saved archive index of " + records.size() + " archives to " + indexFile.getAbsolutePath());
+		} catch (IOException e) {
+			modified = true;
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	private void ensureLoaded() {
+		if (!loaded) {
+			synchronized (this) {
+				if (!loaded) {
+					load();
+					loaded = true;
+				}
+			}
+		}
+	}
+
+	private void load() {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(indexFile))))) {
+			if (in.readInt() != FORMAT_VERSION) {
+				log.info("Archive index " + indexFile.getAbsolutePath() + " is from another version and will be rebuilt.");
+				return;
+			}
+			while (in.readBoolean()) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				String nestedArchivePatterns = in.readUTF();
+				byte[] encodedEntries = new byte[in.readInt()];
+				in.readFully(encodedEntries);
+				records.put(path, new ArchiveRecord(size, lastModified, nestedArchivePatterns, encodedEntries));
+			}
+			log.info("Loaded archive index of " + records.size() + " archives from " + indexFile.getAbsolutePath());
+		} catch (EOFException e) {
+			log.warn("Archive index " + indexFile.getAbsolutePath() + " is incomplete; archives not yet loaded will be re-indexed.");
+		} catch (IOException e) {
+			log.error("Unable to load archive index " + indexFile.getAbsolutePath(), e);
+		}
+	}
+
+	private static void encodeEntries(DataOutputStream out, List<IndexedEntry> entries) throws IOException {
+		out.writeInt(entries.size());
+		String previousName = "";
+		for (IndexedEntry entry : entries) {
+			String name = entry.getName();
+			int prefix = 0;
+			int maxPrefix = Math.min(Math.min(name.length(), previousName.length()), 0xFFFF);
+			while (prefix < maxPrefix && name.charAt(prefix) == previousName.charAt(prefix)) {
+				prefix++;
+			}
+			out.writeShort(prefix);
+			out.writeUTF(name.substring(prefix));
+			out.writeLong(entry.getSize());
+			out.writeLong(entry.getTime());
+			out.writeBoolean(entry.isNestedArchive());
+			if (entry.isNestedArchive()) {
+				encodeEntries(out, entry.getNestedEntries());
+			}
+			previousName = name;
+		}
+	}
+
+	private static List<IndexedEntry> decodeEntries(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<IndexedEntry> entries = new ArrayList<IndexedEntry>(count);
+		String previousName = "";
+		for (int i=0; i<count; i++) {
+			int prefix = in.readUnsignedShort();
+			String name = previousName.substring(0, prefix) + in.readUTF();
+			long size = in.readLong();
+			long time = in.readLong();
+			List<IndexedEntry> nestedEntries = in.readBoolean()? decodeEntries(in) : null;
+			entries.add(new IndexedEntry(name, size, time, nestedEntries));
+			previousName = name;
+		}
+		return entries;
+	}
+
+	/**
+	 * Recorded listing of one archive.
+	 */
+	private static class ArchiveRecord {
+
+		private final long size;
+		private final long lastModified;
+		private final String nestedArchivePatterns;
+		private final byte[] encodedEntries;
+
+		public ArchiveRecord(long size, long lastModified, String nestedArchivePatterns, byte[] encodedEntries) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.nestedArchivePatterns = nestedArchivePatterns;
+			this.encodedEntries = encodedEntries;
+		}
+	}
+}
@@ -0,0 +1,533 @@
+package org.xandercat.cat.scan.index;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Background watcher that keeps metadata indexes current as the file system changes, so that
+ * searches using an index need not read unchanged directories at all.  Every recorded
+ * directory of a watched index is registered with the file system's WatchService.  Changes
+ * are then applied to the index as they are reported.  A file written to is read again and
+ * its recorded entry replaced.  A directory with entries created or deleted is listed again.
+ * When events are lost to an overflow, the directory and everything recorded beneath it is
+ * listed again; nothing outside that subtree is read.  New subdirectories are not indexed by
+ * the watcher; they are recorded and watched once a search lists them, so directories that
+ * searches exclude are never watched.
+ *
+ * Each watched directory is marked current in its index once it is registered and its
+ * listing is known to be up to date, and is unmarked as soon as a change is reported, until
+ * the change has been applied.  Changes are applied after a short delay, so that a burst of
+ * changes to one directory is applied at once.
+ *
+ * The watcher runs on a fixed number of daemon threads, shared by all watched indexes: one
+ * thread takes events from the watch service, and a pool of catscan.watcherThreads threads
+ * (2 by default) registers directories and applies changes.  Watched indexes are saved every
+ * minute if changed.  If the operating system limit on watches is reached, further directories
+ * are not watched; they are checked by last modified time when searched, as they are without
+ * a watcher.  On platforms where the watch service polls rather than being notified, which
+ * would report changes late, nothing is watched.  Watching can be disabled by setting the
+ * catscan.watchIndex system property to false.
+ */
+public class IndexWatcher {
+
+	/**
+	 * Number of threads used to register directories and apply changes.  Can be overridden
+	 * with the catscan.watcherThreads system property.
+	 */
+	public static final int THREADS = Integer.getInteger("catscan.watcherThreads", 2);
+
+	private static final Logger log = LogManager.getLogger(IndexWatcher.class);
+
+	private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("catscan.watchIndex", "true"));
+
+	private static final long SETTLE_MILLIS = 200;
+	private static final long SAVE_INTERVAL_MILLIS = 60000;
+	private static final int LOCK_STRIPES = 64;
+
+	private static IndexWatcher instance;
+
+	private final WatchService watchService;	// null if watching is not supported
+	private final ExecutorService workers;
+	private final Map<MetadataIndex, WatchedIndex> watchedIndexes = new ConcurrentHashMap<MetadataIndex, WatchedIndex>();
+	private final Map<WatchKey, List<WatchedDirectory>> watchedDirectories = new ConcurrentHashMap<WatchKey, List<WatchedDirectory>>();
+	private final Object[] locks = new Object[LOCK_STRIPES];	// serialize changes to each directory
+	private final AtomicInteger watchCount = new AtomicInteger();
+	private volatile boolean limitReached;
+
+	/**
+	 * Returns whether or not watching of metadata indexes is enabled.
+	 *
+	 * @return		whether or not index watching is enabled
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Gets the shared index watcher, starting it on first use.
+	 *
+	 * @return		index watcher
+	 */
+	public static synchronized IndexWatcher getInstance() {
+		if (instance == null) {
+			instance = new IndexWatcher();
+		}
+		return instance;
+	}
+
+	private IndexWatcher() {
+		WatchService watchService = null;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			if (watchService.getClass().getSimpleName().startsWith("Polling")) {
+				log.info("File system changes are only found by polling on this platform; metadata indexes will not be watched.");
+				watchService.close();
+				watchService = null;
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			log.warn("Unable to create watch service; metadata indexes will not be watched.", e);
+			watchService = null;
+		}
+		this.watchService = watchService;
+		for (int i=0; i<locks.length; i++) {
+			locks[i] = new Object();
+		}
+		if (watchService == null) {
+			this.workers = null;
+			return;
+		}
+		this.workers = Executors.newFixedThreadPool(Math.max(1, THREADS), runnable -> {
+			Thread thread = new Thread(runnable, "catscan-index-watcher-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Thread eventThread = new Thread(this::processEvents, "catscan-index-watcher");
+		eventThread.setDaemon(true);
+		eventThread.start();
+	}
+
+	/**
+	 * Returns whether or not file system changes can be watched on this platform.
+	 *
+	 * @return		whether or not watching is supported
+	 */
+	public boolean isSupported() {
+		return watchService != null;
+	}
+
+	/**
+	 * Returns whether or not directories have gone unwatched because the operating system
+	 * limit on watches was reached.
+	 *
+	 * @return		whether or not the watch limit was reached
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * Gets the number of directories being watched, over all watched indexes.
+	 *
+	 * @return		number of directories watched
+	 */
+	public int getWatchCount() {
+		return watchCount.get();
+	}
+
+	/**
+	 * Starts watching the given index, if it is not watched already.  Recorded directories are
+	 * registered in the background; directories recorded later are registered as they are
+	 * recorded.  Has no effect if watching is not supported.
+	 *
+	 * @param index		metadata index to keep current
+	 */
+	public void watch(MetadataIndex index) {
+		if (watchService == null) {
+			return;
+		}
+		WatchedIndex watchedIndex = new WatchedIndex(index);
+		if (watchedIndexes.putIfAbsent(index, watchedIndex) != null) {
+			return;
+		}
+		index.setWatcher(this);
+		for (String relativePath : index.getDirectories("")) {
+			changed(watchedIndex, relativePath, null, false);
+		}
+		log.info("Watching metadata index of " + index.getRoot().getAbsolutePath());
+	}
+
+	/**
+	 * Called by an index when a listing has been recorded other than by the watcher.  The
+	 * directory is registered if it is not watched yet, and its listing checked.
+	 *
+	 * @param index				metadata index
+	 * @param relativePath		path of directory relative to the root of the index
+	 */
+	void directoryRecorded(MetadataIndex index, String relativePath) {
+		WatchedIndex watchedIndex = watchedIndexes.get(index);
+		if (watchedIndex != null) {
+			changed(watchedIndex, relativePath, null, false);
+		}
+	}
+
+	/**
+	 * Called by an index when the listings of a directory and everything beneath it have been
+	 * dropped.  The directories are no longer watched.
+	 *
+	 * @param index				metadata index
+	 * @param prefix			path of directory relative to the root of the index
+	 */
+	void directoriesRemoved(MetadataIndex index, String prefix) {
+		WatchedIndex watchedIndex = watchedIndexes.get(index);
+		if (watchedIndex == null) {
+			return;
+		}
+		Map<String, WatchKey> removed = watchedIndex.keys.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+		for (Map.Entry<String, WatchKey> entry : removed.entrySet()) {
+			unregister(watchedIndex, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Notes a change to a directory, and arranges for it to be applied unless a change to the
+	 * directory is already waiting.  A change with neither a name nor a listing required only
+	 * checks the recorded listing, registering the directory first if needed.
+	 *
+	 * @param watchedIndex		watched index
+	 * @param relativePath		path of directory relative to the root of the index
+	 * @param name				name of entry written to, or null
+	 * @param list				whether or not the directory must be listed again
+	 */
+	private void changed(WatchedIndex watchedIndex, String relativePath, String name, boolean list) {
+		while (true) {
+			PendingChange change = new PendingChange();
+			PendingChange existing = watchedIndex.pendingChanges.putIfAbsent(relativePath, change);
+			PendingChange target = (existing == null)? change : existing;
+			synchronized (target) {
+				if (target.taken) {
+					continue;	// being applied already; a new change is needed
+				}
+				target.list |= list;
+				if (name != null) {
+					if (target.names == null) {
+						target.names = new HashSet<String>();
+					}
+					target.names.add(name);
+				}
+			}
+			watchedIndex.index.setCurrent(relativePath, false);
+			if (existing == null) {
+				long due = System.currentTimeMillis() + SETTLE_MILLIS;
+				workers.execute(() -> apply(watchedIndex, relativePath, due));
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Applies the waiting change to a directory.
+	 *
+	 * @param watchedIndex		watched index
+	 * @param relativePath		path of directory relative to the root of the index
+	 * @param due				time the change is to be applied
+	 */
+	private void apply(WatchedIndex watchedIndex, String relativePath, long due) {
+		long wait = due - System.currentTimeMillis();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		MetadataIndex index = watchedIndex.index;
+		synchronized (locks[(relativePath.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES]) {
+			PendingChange change = watchedIndex.pendingChanges.remove(relativePath);
+			if (change == null) {
+				return;
+			}
+			boolean list;
+			Set<String> names;
+			synchronized (change) {
+				change.taken = true;
+				list = change.list;
+				names = change.names;
+			}
+			if (!index.isRecorded(relativePath)) {
+				return;	// dropped meanwhile
+			}
+			Path directory = watchedIndex.root.resolve(relativePath);
+			if (!watchedIndex.keys.containsKey(relativePath) && !register(watchedIndex, relativePath, directory)) {
+				return;
+			}
+			boolean current = false;
+			if (!list && names != null) {
+				current = replaceEntries(watchedIndex, relativePath, directory, names);
+			} else if (!list) {
+				BasicFileAttributes attributes = readAttributes(directory, index.isFollowLinks());
+				current = attributes != null && index.isRecorded(relativePath, attributes.lastModifiedTime().toMillis());
+			}
+			if (!current) {
+				current = list(watchedIndex, relativePath, directory);
+			}
+			if (current) {
+				index.setCurrent(relativePath, true);
+				if (watchedIndex.pendingChanges.containsKey(relativePath)) {
+					index.setCurrent(relativePath, false);	// changed again while being applied
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads written files again and replaces their recorded entries.
+	 *
+	 * @return		whether or not entries were replaced
+	 */
+	private boolean replaceEntries(WatchedIndex watchedIndex, String relativePath, Path directory, Set<String> names) {
+		List<MetadataEntry> entries = new ArrayList<MetadataEntry>();
+		for (String name : names) {
+			BasicFileAttributes attributes = readAttributes(directory.resolve(name), watchedIndex.index.isFollowLinks());
+			if (attributes == null) {
+				return false;	// deleted since; the directory must be listed again
+			}
+			entries.add(new MetadataEntry(name, attributes));
+		}
+		return watchedIndex.index.replaceEntries(relativePath, entries);
+	}
+
+	/**
+	 * Lists a directory again and records its listing.  If the directory no longer exists, it
+	 * is no longer watched; its parent is told of the deletion by its own watch.
+	 *
+	 * @return		whether or not the directory was listed
+	 */
+	private boolean list(WatchedIndex watchedIndex, String relativePath, Path directory) {
+		boolean followLinks = watchedIndex.index.isFollowLinks();
+		BasicFileAttributes directoryAttributes = readAttributes(directory, followLinks);
+		List<MetadataEntry> entries = new ArrayList<MetadataEntry>();
+		if (directoryAttributes != null && directoryAttributes.isDirectory()) {
+			try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+				for (Path path : directoryStream) {
+					BasicFileAttributes attributes = readAttributes(path, followLinks);
+					if (attributes != null) {
+						entries.add(new MetadataEntry(path.getFileName().toString(), attributes));
+					}
+				}
+				watchedIndex.index.putWatchedEntries(relativePath, directoryAttributes.lastModifiedTime().toMillis(), entries);
+				return true;
+			} catch (IOException | DirectoryIteratorException e) {
+				// unreadable or deleted while being listed
+			}
+		}
+		WatchKey key = watchedIndex.keys.get(relativePath);
+		if (key != null) {
+			unregister(watchedIndex, relativePath, key);
+		}
+		return false;
+	}
+
+	/**
+	 * Registers a directory with the watch service.
+	 *
+	 * @return		whether or not the directory is watched
+	 */
+	private boolean register(WatchedIndex watchedIndex, String relativePath, Path directory) {
+		if (limitReached) {
+			return false;
+		}
+		WatchKey key = null;
+		try {
+			key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (FileSystemException e) {
+			return false;	// this directory only, e.g. permission denied or deleted since it was listed
+		} catch (IOException e) {
+			// the watch limit is reported as a plain IOException, such as Linux's "User limit of inotify watches reached"
+			if (!limitReached) {
+				limitReached = true;
+				log.warn("Unable to watch " + directory + " (" + e.getMessage() + "); watching " + watchCount.get()
+						+ " directories, further directories are checked by last modified time when searched.");
+			}
+			return false;
+		} catch (RuntimeException e) {
+			return false;	// no longer a directory, or watch service closed
+		}
+		// the same directory can be reached by more than one path, or from more than one index, and then has one key
+		List<WatchedDirectory> directories = watchedDirectories.computeIfAbsent(key, k -> new CopyOnWriteArrayList<WatchedDirectory>());
+		WatchedDirectory watchedDirectory = new WatchedDirectory(watchedIndex, relativePath);
+		if (!directories.contains(watchedDirectory)) {
+			directories.add(watchedDirectory);
+			if (directories.size() == 1) {
+				watchCount.incrementAndGet();
+			}
+		}
+		watchedIndex.keys.put(relativePath, key);
+		return true;
+	}
+
+	private void unregister(WatchedIndex watchedIndex, String relativePath, WatchKey key) {
+		watchedIndex.keys.remove(relativePath, key);
+		watchedIndex.index.setCurrent(relativePath, false);
+		List<WatchedDirectory> directories = watchedDirectories.get(key);
+		if (directories != null) {
+			directories.remove(new WatchedDirectory(watchedIndex, relativePath));
+			if (directories.isEmpty() && watchedDirectories.remove(key, directories)) {
+				key.cancel();
+				watchCount.decrementAndGet();
+				limitReached = false;	// a watch has been freed
+			}
+		}
+	}
+
+	/**
+	 * Takes events from the watch service and notes the changes they report, until the watch
+	 * service is closed.  Watched indexes are saved periodically.
+	 */
+	private void processEvents() {
+		long lastSaved = System.currentTimeMillis();
+		while (true) {
+			WatchKey key = null;
+			try {
+				key = watchService.poll(SAVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			if (System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MILLIS) {
+				saveIndexes();
+				lastSaved = System.currentTimeMillis();
+			}
+			if (key == null) {
+				continue;
+			}
+			List<WatchedDirectory> directories = watchedDirectories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (directories == null) {
+					continue;
+				}
+				for (WatchedDirectory directory : directories) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						for (String relativePath : directory.watchedIndex.index.getDirectories(directory.relativePath)) {
+							changed(directory.watchedIndex, relativePath, null, true);
+						}
+					} else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+						changed(directory.watchedIndex, directory.relativePath, event.context().toString(), false);
+					} else {
+						changed(directory.watchedIndex, directory.relativePath, null, true);
+					}
+				}
+			}
+			if (!key.reset() && directories != null) {
+				// directory deleted or no longer accessible
+				for (WatchedDirectory directory : directories) {
+					unregister(directory.watchedIndex, directory.relativePath, key);
+				}
+			}
+		}
+	}
+
+	private void saveIndexes() {
+		for (MetadataIndex index : watchedIndexes.keySet()) {
+			try {
+				index.saveIfModified();
+			} catch (IOException e) {
+				log.error("Unable to save metadata index of " + index.getRoot().getAbsolutePath(), e);
+			}
+		}
+	}
+
+	private static BasicFileAttributes readAttributes(Path path, boolean followLinks) {
+		try {
+			return followLinks? Files.readAttributes(path, BasicFileAttributes.class)
+					: Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			if (followLinks) {
+				return readAttributes(path, false);	// broken link
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Watch state of one index.
+	 */
+	private static class WatchedIndex {
+
+		private final MetadataIndex index;
+		private final Path root;
+		private final ConcurrentSkipListMap<String, WatchKey> keys = new ConcurrentSkipListMap<String, WatchKey>();
+		private final Map<String, PendingChange> pendingChanges = new ConcurrentHashMap<String, PendingChange>();
+
+		public WatchedIndex(MetadataIndex index) {
+			this.index = index;
+			this.root = index.getRoot().toPath();
+		}
+	}
+
+	/**
+	 * Directory of an index registered with a watch key.
+	 */
+	private static class WatchedDirectory {
+
+		private final WatchedIndex watchedIndex;
+		private final String relativePath;
+
+		public WatchedDirectory(WatchedIndex watchedIndex, String relativePath) {
+			this.watchedIndex = watchedIndex;
+			this.relativePath = relativePath;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof WatchedDirectory)) {
+				return false;
+			}
+			WatchedDirectory other = (WatchedDirectory) obj;
+			return watchedIndex == other.watchedIndex && relativePath.equals(other.relativePath);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(watchedIndex) * 31 + relativePath.hashCode();
+		}
+	}
+
+	/**
+	 * Change to a directory waiting to be applied.  Once taken to be applied, further changes
+	 * are noted in a new instance.
+	 */
+	private static class PendingChange {
+
+		private boolean taken;
+		private boolean list;
+		private Set<String> names;	// entries written to; null if none
+	}
+}
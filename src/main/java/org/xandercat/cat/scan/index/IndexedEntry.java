@@ -0,0 +1,90 @@
+package org.xandercat.cat.scan.index;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Entry of an archive as recorded in the archive index.  Entries that are themselves
+ * archives carry the entries nested within them.
+ * 
+ * Instances are immutable.
+ */
+public class IndexedEntry {
+
+	private final String name;
+	private final long size;
+	private final long time;
+	private final List<IndexedEntry> nestedEntries;
+	
+	/**
+	 * Constructs a new indexed entry.
+	 * 
+	 * @param name				full name of entry within archive
+	 * @param size				uncompressed size of entry, or -1 if unknown
+	 * @param time				modification time of entry, or -1 if unknown
+	 * @param nestedEntries		entries nested within this entry, or null if entry is not a nested archive
+	 */
+	public IndexedEntry(String name, long size, long time, List<IndexedEntry> nestedEntries) {
+		this.name = name;
+		this.size = size;
+		this.time = time;
+		this.nestedEntries = (nestedEntries == null)? null : Collections.unmodifiableList(nestedEntries);
+	}
+	
+	/**
+	 * Constructs a new indexed entry from a ZIP entry.
+	 * 
+	 * @param zipEntry			ZIP entry
+	 * @param nestedEntries		entries nested within this entry, or null if entry is not a nested archive
+	 */
+	public IndexedEntry(ZipEntry zipEntry, List<IndexedEntry> nestedEntries) {
+		this(zipEntry.getName(), zipEntry.getSize(), zipEntry.getTime(), nestedEntries);
+	}
+	
+	public String getName() {
+		return name;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns whether or not this entry is a nested archive.
+	 * 
+	 * @return		whether or not entry is a nested archive
+	 */
+	public boolean isNestedArchive() {
+		return nestedEntries != null;
+	}
+	
+	/**
+	 * Gets the entries nested within this entry.
+	 * 
+	 * @return		nested entries, or null if entry is not a nested archive
+	 */
+	public List<IndexedEntry> getNestedEntries() {
+		return nestedEntries;
+	}
+	
+	/**
+	 * Creates a ZIP entry with the name, size, and time of this entry.
+	 * 
+	 * @return		ZIP entry for this entry
+	 */
+	public ZipEntry toZipEntry() {
+		ZipEntry zipEntry = new ZipEntry(name);
+		if (size >= 0) {
+			zipEntry.setSize(size);
+		}
+		if (time >= 0) {
+			zipEntry.setTime(time);
+		}
+		return zipEntry;
+	}
+}
@@ -0,0 +1,123 @@
+package org.xandercat.cat.scan.index;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Recorded metadata of one entry of a directory: its name, type, size, and last modified
+ * time, along with the file key used to recognize directories reached more than once through
+ * symbolic links.  Entries serve as the basic file attributes of the files made from them,
+ * so that a directory listing recorded in the index can stand in for a listing read from disk.
+ * Creation and last access times are not recorded and are reported as the last modified time.
+ */
+public class MetadataEntry implements BasicFileAttributes {
+
+	/**
+	 * Type of a directory entry.
+	 */
+	public static enum Type {
+		FILE, DIRECTORY, SYMBOLIC_LINK, OTHER;
+	}
+
+	private final String name;
+	private final Type type;
+	private final long size;
+	private final long lastModified;
+	private final String fileKey;
+
+	/**
+	 * Constructs a new entry.
+	 *
+	 * @param name				name of entry within its directory
+	 * @param type				type of entry
+	 * @param size				size in bytes
+	 * @param lastModified		last modified time in milliseconds
+	 * @param fileKey			string form of file key, or null if not available
+	 */
+	public MetadataEntry(String name, Type type, long size, long lastModified, String fileKey) {
+		this.name = name;
+		this.type = type;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.fileKey = fileKey;
+	}
+
+	/**
+	 * Constructs a new entry from attributes read from disk.
+	 *
+	 * @param name				name of entry within its directory
+	 * @param attributes		attributes of entry
+	 */
+	public MetadataEntry(String name, BasicFileAttributes attributes) {
+		this(name, getType(attributes), attributes.size(), attributes.lastModifiedTime().toMillis(),
+				(attributes.fileKey() == null)? null : attributes.fileKey().toString());
+	}
+
+	private static Type getType(BasicFileAttributes attributes) {
+		if (attributes.isDirectory()) {
+			return Type.DIRECTORY;
+		} else if (attributes.isRegularFile()) {
+			return Type.FILE;
+		} else if (attributes.isSymbolicLink()) {
+			return Type.SYMBOLIC_LINK;
+		}
+		return Type.OTHER;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return FileTime.fromMillis(lastModified);
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return lastModifiedTime();
+	}
+
+	@Override
+	public FileTime creationTime() {
+		return lastModifiedTime();
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return type == Type.FILE;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return type == Type.DIRECTORY;
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return type == Type.SYMBOLIC_LINK;
+	}
+
+	@Override
+	public boolean isOther() {
+		return type == Type.OTHER;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the file key in string form.  Keys of the same file compare equal in this form,
+	 * whether read from disk or recorded in the index.
+	 */
+	@Override
+	public Object fileKey() {
+		return fileKey;
+	}
+}
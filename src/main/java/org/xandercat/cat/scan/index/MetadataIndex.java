@@ -0,0 +1,576 @@
+package org.xandercat.cat.scan.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent index of the directory listings beneath one search root, recording the name,
+ * type, size, and last modified time of every entry.  Listings are keyed by directory path
+ * relative to the root, and each records the last modified time of its directory; as adding,
+ * removing, or renaming an entry changes the last modified time of the directory holding it,
+ * a recorded listing can stand in for listing the directory again for as long as that time
+ * is unchanged.  The sizes and times of files changed in place are not seen until their
+ * directory is listed again, so an index can be refreshed by listing every directory anew.
+ * Listings recorded within a couple of seconds of their directory changing are not trusted,
+ * as the directory could change again without its last modified time moving on.
+ *
+ * The index is stored uncompressed, one file per root, in the same directory as the archive
+ * index.  On load, the file is memory mapped and only the table of directories is read;
+ * listings stay in the mapped file, in encoded form, until they are used.  Entry names are
+ * stored sorted, each as the length of the prefix it shares with the previous name followed
+ * by the remaining characters.  On Windows, where a mapped file cannot be replaced, the file
+ * is read into memory instead.  Changes are saved with saveIfModified().
+ *
+ * An IndexWatcher can keep an index current as the file system changes.  Directories the
+ * watcher is watching, and has no unprocessed changes for, are marked current; their
+ * recorded listings can be used without reading the directory at all.
+ *
+ * An index can be used by any number of threads.
+ */
+public class MetadataIndex {
+
+	private static final Logger log = LogManager.getLogger(MetadataIndex.class);
+
+	private static final int MAGIC = 0x43534D49;	// "CSMI"
+	private static final int FORMAT_VERSION = 1;
+	private static final long UNTRUSTED = Long.MIN_VALUE;	// recorded time of listings that are not to be used
+	private static final long RACY_INTERVAL = 2000;
+	private static final boolean MAP_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+
+	private static final Map<String, MetadataIndex> instances = new ConcurrentHashMap<String, MetadataIndex>();
+
+	private final String root;
+	private final boolean followLinks;
+	private final File indexFile;
+	private final ConcurrentSkipListMap<String, DirectoryRecord> records = new ConcurrentSkipListMap<String, DirectoryRecord>();
+	private final Set<String> currentDirectories = ConcurrentHashMap.newKeySet();	// confirmed current by the watcher
+	private volatile IndexWatcher watcher;
+	private volatile boolean loaded;
+	private volatile boolean modified;
+
+	/**
+	 * Gets the shared metadata index for the given root.  Listings made following symbolic
+	 * links differ from those made without, so each is indexed separately.
+	 *
+	 * @param root				directory at the root of the index
+	 * @param followLinks		whether or not symbolic links are followed
+	 *
+	 * @return					metadata index
+	 */
+	public static MetadataIndex getInstance(File root, boolean followLinks) {
+		String key = getKey(root, followLinks);
+		MetadataIndex index = instances.get(key);
+		if (index == null) {
+			index = new MetadataIndex(root.getAbsolutePath(), followLinks, getIndexFile(root, followLinks));
+			MetadataIndex existing = instances.putIfAbsent(key, index);
+			if (existing != null) {
+				index = existing;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the time the index for the given root was last saved.
+	 *
+	 * @param root				directory at the root of the index
+	 * @param followLinks		whether or not symbolic links are followed
+	 *
+	 * @return					time index was last saved, or 0 if there is no index for the root
+	 */
+	public static long getLastSaved(File root, boolean followLinks) {
+		return getIndexFile(root, followLinks).lastModified();
+	}
+
+	/**
+	 * Returns whether or not the index for the given root is being kept current by a watcher.
+	 *
+	 * @param root				directory at the root of the index
+	 * @param followLinks		whether or not symbolic links are followed
+	 *
+	 * @return					whether or not index is watched
+	 */
+	public static boolean isWatched(File root, boolean followLinks) {
+		MetadataIndex index = instances.get(getKey(root, followLinks));
+		return index != null && index.watcher != null;
+	}
+
+	private static String getKey(File root, boolean followLinks) {
+		return root.getAbsolutePath() + (followLinks? "" : "\0nofollow");
+	}
+
+	private static File getIndexFile(File root, boolean followLinks) {
+		return new File(ArchiveIndex.INDEX_DIRECTORY, "metadata-" + Integer.toHexString(getKey(root, followLinks).hashCode()) + ".idx");
+	}
+
+	private MetadataIndex(String root, boolean followLinks, File indexFile) {
+		this.root = root;
+		this.followLinks = followLinks;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Gets the directory at the root of the index.
+	 *
+	 * @return		root directory
+	 */
+	public File getRoot() {
+		return new File(root);
+	}
+
+	/**
+	 * Returns whether or not listings follow symbolic links.
+	 *
+	 * @return		whether or not symbolic links are followed
+	 */
+	public boolean isFollowLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * Gets the number of directories whose listings are recorded.
+	 *
+	 * @return		number of directories
+	 */
+	public int getDirectoryCount() {
+		ensureLoaded();
+		return records.size();
+	}
+
+	/**
+	 * Gets the recorded listing of the given directory.
+	 *
+	 * @param relativePath		path of directory relative to the root; empty for the root, otherwise ending with /
+	 * @param lastModified		current last modified time of the directory
+	 *
+	 * @return					entries of directory, or null if directory has not been indexed or has changed since
+	 */
+	public List<MetadataEntry> getEntries(String relativePath, long lastModified) {
+		ensureLoaded();
+		DirectoryRecord record = records.get(relativePath);
+		if (record == null || record.lastModified != lastModified) {
+			return null;
+		}
+		try {
+			return decodeEntries(record);
+		} catch (RuntimeException e) {
+			log.error("Unable to decode index entries for " + root + File.separator + relativePath, e);
+			records.remove(relativePath, record);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the recorded listing of the given directory if a watcher has confirmed that it is
+	 * current.  The directory itself need not be read.
+	 *
+	 * @param relativePath		path of directory relative to the root; empty for the root, otherwise ending with /
+	 *
+	 * @return					entries of directory, or null if directory is not known to be current
+	 */
+	public List<MetadataEntry> getCurrentEntries(String relativePath) {
+		if (!currentDirectories.contains(relativePath)) {
+			return null;
+		}
+		ensureLoaded();
+		DirectoryRecord record = records.get(relativePath);
+		if (record == null) {
+			return null;
+		}
+		try {
+			return decodeEntries(record);
+		} catch (RuntimeException e) {
+			log.error("Unable to decode index entries for " + root + File.separator + relativePath, e);
+			records.remove(relativePath, record);
+			return null;
+		}
+	}
+
+	/**
+	 * Records the listing of the given directory, replacing any previously recorded listing.
+	 * Listings of subdirectories that are no longer in the directory are dropped, along with
+	 * everything recorded beneath them.
+	 *
+	 * @param relativePath		path of directory relative to the root; empty for the root, otherwise ending with /
+	 * @param lastModified		last modified time of the directory, read before it was listed
+	 * @param entries			entries of directory
+	 */
+	public void putEntries(String relativePath, long lastModified, List<MetadataEntry> entries) {
+		IndexWatcher watcher = this.watcher;
+		if (record(relativePath, lastModified, entries) && watcher != null) {
+			// the listing may be older than one the watcher recorded; have the watcher check it
+			watcher.directoryRecorded(this, relativePath);
+		}
+	}
+
+	/**
+	 * Records the listing of a directory, as read by the watcher.
+	 *
+	 * @param relativePath		path of directory relative to the root
+	 * @param lastModified		last modified time of the directory, read before it was listed
+	 * @param entries			entries of directory
+	 */
+	void putWatchedEntries(String relativePath, long lastModified, List<MetadataEntry> entries) {
+		record(relativePath, lastModified, entries);
+	}
+
+	private boolean record(String relativePath, long lastModified, List<MetadataEntry> entries) {
+		ensureLoaded();
+		List<MetadataEntry> sortedEntries = new ArrayList<MetadataEntry>(entries);
+		Collections.sort(sortedEntries, (entry1, entry2) -> entry1.getName().compareTo(entry2.getName()));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			encodeEntries(new DataOutputStream(bytes), sortedEntries);
+		} catch (IOException e) {
+			log.error("Unable to encode index entries for " + root + File.separator + relativePath, e);
+			return false;
+		}
+		if (System.currentTimeMillis() - lastModified < RACY_INTERVAL) {
+			lastModified = UNTRUSTED;
+		}
+		DirectoryRecord previous = records.put(relativePath,
+				new DirectoryRecord(lastModified, sortedEntries.size(), ByteBuffer.wrap(bytes.toByteArray())));
+		currentDirectories.remove(relativePath);
+		modified = true;
+		if (previous != null) {
+			Set<String> subdirectories = new HashSet<String>();
+			for (MetadataEntry entry : sortedEntries) {
+				if (entry.isDirectory()) {
+					subdirectories.add(entry.getName());
+				}
+			}
+			try {
+				for (MetadataEntry entry : decodeEntries(previous)) {
+					if (entry.isDirectory() && !subdirectories.contains(entry.getName())) {
+						removeDirectories(relativePath + entry.getName() + "/");
+					}
+				}
+			} catch (RuntimeException e) {
+				log.warn("Unable to decode previous index entries for " + root + File.separator + relativePath
+						+ "; listings of removed subdirectories are kept.", e);
+			}
+		}
+		return true;
+	}
+
+	private void removeDirectories(String prefix) {
+		records.subMap(prefix, true, prefix + Character.MAX_VALUE, true).clear();
+		currentDirectories.removeIf(relativePath -> relativePath.startsWith(prefix));
+		IndexWatcher watcher = this.watcher;
+		if (watcher != null) {
+			watcher.directoriesRemoved(this, prefix);
+		}
+	}
+
+	/**
+	 * Replaces recorded entries of a directory with entries read again by the watcher, such as
+	 * for files that have been written to.  The recorded last modified time of the directory
+	 * is kept, as changing the content of files does not change their directory.
+	 *
+	 * @param relativePath		path of directory relative to the root
+	 * @param changedEntries	entries read again
+	 *
+	 * @return					whether or not entries were replaced; false if the directory or any of the entries is not recorded
+	 */
+	boolean replaceEntries(String relativePath, List<MetadataEntry> changedEntries) {
+		ensureLoaded();
+		DirectoryRecord record = records.get(relativePath);
+		if (record == null) {
+			return false;
+		}
+		List<MetadataEntry> entries = null;
+		try {
+			entries = decodeEntries(record);
+		} catch (RuntimeException e) {
+			return false;
+		}
+		Map<String, MetadataEntry> changedByName = new HashMap<String, MetadataEntry>();
+		for (MetadataEntry entry : changedEntries) {
+			changedByName.put(entry.getName(), entry);
+		}
+		int replaced = 0;
+		for (int i=0; i<entries.size(); i++) {
+			MetadataEntry entry = changedByName.get(entries.get(i).getName());
+			if (entry != null) {
+				if (entry.getType() != entries.get(i).getType()) {
+					return false;	// replaced by an entry of another type; the directory must be listed again
+				}
+				entries.set(i, entry);
+				replaced++;
+			}
+		}
+		if (replaced < changedByName.size()) {
+			return false;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			encodeEntries(new DataOutputStream(bytes), entries);
+		} catch (IOException e) {
+			return false;
+		}
+		if (!records.replace(relativePath, record, new DirectoryRecord(record.lastModified, entries.size(), ByteBuffer.wrap(bytes.toByteArray())))) {
+			return false;	// listed again meanwhile
+		}
+		modified = true;
+		return true;
+	}
+
+	/**
+	 * Returns whether or not a listing of the given directory is recorded.
+	 *
+	 * @param relativePath		path of directory relative to the root
+	 *
+	 * @return					whether or not directory is recorded
+	 */
+	boolean isRecorded(String relativePath) {
+		return records.containsKey(relativePath);
+	}
+
+	/**
+	 * Returns whether or not the recorded listing of the given directory can be used for a
+	 * directory with the given last modified time.
+	 *
+	 * @param relativePath		path of directory relative to the root
+	 * @param lastModified		current last modified time of the directory
+	 *
+	 * @return					whether or not recorded listing is current
+	 */
+	boolean isRecorded(String relativePath, long lastModified) {
+		DirectoryRecord record = records.get(relativePath);
+		return record != null && record.lastModified == lastModified;
+	}
+
+	/**
+	 * Gets the recorded directories at or beneath the given path.
+	 *
+	 * @param prefix			path of directory relative to the root; empty for all directories
+	 *
+	 * @return					relative paths of recorded directories
+	 */
+	NavigableSet<String> getDirectories(String prefix) {
+		ensureLoaded();
+		return records.subMap(prefix, true, prefix + Character.MAX_VALUE, true).keySet();
+	}
+
+	/**
+	 * Marks the given directory as confirmed current by the watcher, or not.
+	 *
+	 * @param relativePath		path of directory relative to the root
+	 * @param current			whether or not directory is current
+	 */
+	void setCurrent(String relativePath, boolean current) {
+		if (current) {
+			currentDirectories.add(relativePath);
+		} else {
+			currentDirectories.remove(relativePath);
+		}
+	}
+
+	void setWatcher(IndexWatcher watcher) {
+		this.watcher = watcher;
+	}
+
+	/**
+	 * Saves the index if it has been modified since it was loaded or last saved.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void saveIfModified() throws IOException {
+		if (!modified) {
+			return;
+		}
+		modified = false;
+		if (!ArchiveIndex.INDEX_DIRECTORY.isDirectory() && !ArchiveIndex.INDEX_DIRECTORY.mkdirs()) {
+			throw new IOException("Unable to create index directory " + ArchiveIndex.INDEX_DIRECTORY.getAbsolutePath());
+		}
+		File tempFile = File.createTempFile("metadata", ".tmp", ArchiveIndex.INDEX_DIRECTORY);
+		try {
+			int count = 0;
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeBoolean(followLinks);
+				writeString(out, root);
+				List<Map.Entry<String, DirectoryRecord>> entries = new ArrayList<Map.Entry<String, DirectoryRecord>>(records.entrySet());
+				out.writeInt(entries.size());
+				byte[] chunk = new byte[8192];
+				for (Map.Entry<String, DirectoryRecord> entry : entries) {
+					DirectoryRecord record = entry.getValue();
+					ByteBuffer encodedEntries = record.encodedEntries.duplicate();
+					writeString(out, entry.getKey());
+					out.writeLong(record.lastModified);
+					out.writeInt(record.entryCount);
+					out.writeInt(encodedEntries.remaining());
+					while (encodedEntries.hasRemaining()) {
+						int length = Math.min(chunk.length, encodedEntries.remaining());
+						encodedEntries.get(chunk, 0, length);
+						out.write(chunk, 0, length);
+					}
+				}
+				count = entries.size();
+			}
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Saved metadata index of " + count + " directories beneath " + root + " to " + indexFile.getAbsolutePath());
+		} catch (IOException e) {
+			modified = true;
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	private void ensureLoaded() {
+		if (!loaded) {
+			synchronized (this) {
+				if (!loaded) {
+					load();
+					loaded = true;
+				}
+			}
+		}
+	}
+
+	private void load() {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		ByteBuffer buffer = null;
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			if (MAP_FILES) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} else {
+				buffer = ByteBuffer.allocate((int) channel.size());
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0) {
+						break;
+					}
+				}
+				buffer.flip();
+			}
+		} catch (IOException e) {
+			log.error("Unable to load metadata index " + indexFile.getAbsolutePath(), e);
+			return;
+		}
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+					|| (buffer.get() != 0) != followLinks || !root.equals(readString(buffer))) {
+				log.info("Metadata index " + indexFile.getAbsolutePath() + " is from another version or root and will be rebuilt.");
+				return;
+			}
+			int count = buffer.getInt();
+			for (int i=0; i<count; i++) {
+				String relativePath = readString(buffer);
+				long lastModified = buffer.getLong();
+				int entryCount = buffer.getInt();
+				int length = buffer.getInt();
+				ByteBuffer encodedEntries = buffer.slice();
+				encodedEntries.limit(length);
+				buffer.position(buffer.position() + length);
+				records.put(relativePath, new DirectoryRecord(lastModified, entryCount, encodedEntries));
+			}
+			log.info("Loaded metadata index of " + records.size() + " directories beneath " + root + " from " + indexFile.getAbsolutePath());
+		} catch (RuntimeException e) {
+			log.warn("Metadata index " + indexFile.getAbsolutePath() + " is incomplete; directories not yet loaded will be listed again.");
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void encodeEntries(DataOutputStream out, List<MetadataEntry> entries) throws IOException {
+		String previousName = "";
+		for (MetadataEntry entry : entries) {
+			String name = entry.getName();
+			int prefix = 0;
+			int maxPrefix = Math.min(Math.min(name.length(), previousName.length()), 0xFFFF);
+			while (prefix < maxPrefix && name.charAt(prefix) == previousName.charAt(prefix)) {
+				prefix++;
+			}
+			out.writeByte(entry.getType().ordinal());
+			out.writeShort(prefix);
+			writeString(out, name.substring(prefix));
+			out.writeLong(entry.size());
+			out.writeLong(entry.lastModifiedTime().toMillis());
+			// file keys are only needed to recognize directories reached more than once
+			Object fileKey = entry.isDirectory()? entry.fileKey() : null;
+			out.writeBoolean(fileKey != null);
+			if (fileKey != null) {
+				writeString(out, fileKey.toString());
+			}
+			previousName = name;
+		}
+	}
+
+	/**
+	 * Decodes a recorded listing.  Throws an unchecked exception if the encoded entries are
+	 * corrupt, such as from a damaged index file.
+	 *
+	 * @param record		recorded listing
+	 *
+	 * @return				entries of listing
+	 */
+	private static List<MetadataEntry> decodeEntries(DirectoryRecord record) {
+		ByteBuffer in = record.encodedEntries.duplicate();
+		MetadataEntry.Type[] types = MetadataEntry.Type.values();
+		List<MetadataEntry> entries = new ArrayList<MetadataEntry>(record.entryCount);
+		String previousName = "";
+		for (int i=0; i<record.entryCount; i++) {
+			MetadataEntry.Type type = types[in.get()];
+			int prefix = in.getShort() & 0xFFFF;
+			String name = previousName.substring(0, prefix) + readString(in);
+			long size = in.getLong();
+			long lastModified = in.getLong();
+			String fileKey = (in.get() != 0)? readString(in) : null;
+			entries.add(new MetadataEntry(name, type, size, lastModified, fileKey));
+			previousName = name;
+		}
+		return entries;
+	}
+
+	/**
+	 * Recorded listing of one directory.
+	 */
+	private static class DirectoryRecord {
+
+		private final long lastModified;
+		private final int entryCount;
+		private final ByteBuffer encodedEntries;	// slice of the mapped index file, or of the bytes encoded when recorded
+
+		public DirectoryRecord(long lastModified, int entryCount, ByteBuffer encodedEntries) {
+			this.lastModified = lastModified;
+			this.entryCount = entryCount;
+			this.encodedEntries = encodedEntries;
+		}
+	}
+}
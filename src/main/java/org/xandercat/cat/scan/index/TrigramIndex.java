@@ -0,0 +1,707 @@
+package org.xandercat.cat.scan.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.scan.text.Trigrams;
+
+/**
+ * Persistent trigram index of the content of the files beneath one search root, in the
+ * manner of code search tools.  For every file, the index records the distinct trigrams of
+ * its content, along with its size and last modified time; a file whose size and time are
+ * unchanged need not be read again.  A query for literal text is decomposed into the trigrams
+ * of the text, and the files that may contain the text are found by intersecting the posting
+ * lists of those trigrams; only those files need to be searched.  The index only rules files
+ * out, so every file it leaves in must still be searched to confirm a match.  Files whose
+ * content could not be indexed, such as binary files, are never ruled out.  Files recorded
+ * within a couple of seconds of being changed are read again, as they could change again
+ * without their last modified time moving on.
+ *
+ * The index is stored one file per root, in the same directory as the archive index.  The
+ * table of files is stored sorted by path, each path as the length of the prefix it shares
+ * with the previous path followed by the remaining characters.  The posting list of each
+ * trigram is stored as the differences between ascending file numbers, as variable length
+ * integers, followed by a table of trigrams that is searched by binary search.  On load, the
+ * file is memory mapped and only the table of files is read; posting lists are decoded from
+ * the mapped file as queries need them.  On Windows, where a mapped file cannot be replaced,
+ * the file is read into memory instead.
+ *
+ * Files indexed since the index was loaded are held in memory with their trigrams, and are
+ * merged with the mapped posting lists when the index is saved; the saved file then replaces
+ * the mapped one.  If enough trigrams are held in memory, the index is saved as more files
+ * are indexed, so that indexing a large tree does not hold all of its trigrams in memory.
+ *
+ * An index can be used by any number of threads.
+ */
+public class TrigramIndex {
+
+	private static final Logger log = LogManager.getLogger(TrigramIndex.class);
+
+	private static final int MAGIC = 0x43535449;	// "CSTI"
+	private static final int FORMAT_VERSION = 1;
+	private static final long UNTRUSTED = Long.MIN_VALUE;	// recorded time of files that are to be read again
+	private static final long RACY_INTERVAL = 2000;
+	private static final long MAX_PENDING_TRIGRAMS = 16 * 1024 * 1024;	// trigrams held in memory before the index is saved
+	private static final int TABLE_ENTRY_SIZE = 12;
+	private static final int TRAILER_SIZE = 12;
+	private static final boolean MAP_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+
+	private static final Map<String, TrigramIndex> instances = new ConcurrentHashMap<String, TrigramIndex>();
+
+	private final String root;
+	private final File indexFile;
+	private final Map<String, Document> documents = new ConcurrentHashMap<String, Document>();
+	private final ReadWriteLock saveLock = new ReentrantReadWriteLock();	// shared by changes, exclusive to saves
+	private final AtomicLong pendingTrigrams = new AtomicLong();
+	private volatile Segment segment;
+	private volatile boolean loaded;
+	private volatile boolean modified;
+
+	/**
+	 * Gets the shared trigram index for the given root.
+	 *
+	 * @param root			directory at the root of the index
+	 *
+	 * @return				trigram index
+	 */
+	public static TrigramIndex getInstance(File root) {
+		String key = root.getAbsolutePath();
+		TrigramIndex index = instances.get(key);
+		if (index == null) {
+			index = new TrigramIndex(key, new File(ArchiveIndex.INDEX_DIRECTORY, "trigram-" + Integer.toHexString(key.hashCode()) + ".idx"));
+			TrigramIndex existing = instances.putIfAbsent(key, index);
+			if (existing != null) {
+				index = existing;
+			}
+		}
+		return index;
+	}
+
+	private TrigramIndex(String root, File indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Gets the directory at the root of the index.
+	 *
+	 * @return		root directory
+	 */
+	public File getRoot() {
+		return new File(root);
+	}
+
+	/**
+	 * Gets the number of files recorded.
+	 *
+	 * @return		number of files
+	 */
+	public int getFileCount() {
+		ensureLoaded();
+		return documents.size();
+	}
+
+	/**
+	 * Creates a query for files containing any of the given literals.
+	 *
+	 * @param literals		encoded literals, with no line breaks
+	 *
+	 * @return				query, or null if there are no literals or any literal is too short to be indexed
+	 */
+	public Query newQuery(List<byte[]> literals) {
+		if (literals == null || literals.isEmpty()) {
+			return null;
+		}
+		int[][] alternatives = new int[literals.size()][];
+		for (int i=0; i<alternatives.length; i++) {
+			alternatives[i] = Trigrams.of(literals.get(i));
+			if (alternatives[i].length == 0) {
+				return null;	// any file could contain a literal of fewer than three bytes
+			}
+		}
+		ensureLoaded();
+		return new Query(alternatives);
+	}
+
+	/**
+	 * Returns whether or not a file is recorded, whether or not it has changed since.
+	 *
+	 * @param relativePath		path of file relative to the root, separated by /
+	 *
+	 * @return					whether or not file is recorded
+	 */
+	public boolean isRecorded(String relativePath) {
+		ensureLoaded();
+		return documents.containsKey(relativePath);
+	}
+
+	/**
+	 * Returns whether or not the recorded trigrams of a file are current.
+	 *
+	 * @param relativePath		path of file relative to the root, separated by /
+	 * @param lastModified		current last modified time of the file
+	 * @param size				current size of the file
+	 * @param scope				description of the content of the file searched
+	 *
+	 * @return					whether or not recorded trigrams are current
+	 */
+	public boolean isCurrent(String relativePath, long lastModified, long size, String scope) {
+		ensureLoaded();
+		Document document = documents.get(relativePath);
+		return document != null && document.lastModified == lastModified && document.size == size && document.scope == scope.hashCode();
+	}
+
+	/**
+	 * Records the trigrams of a file, replacing any previously recorded.
+	 *
+	 * @param relativePath		path of file relative to the root, separated by /
+	 * @param lastModified		last modified time of the file, read before it was read
+	 * @param size				size of the file, read before it was read
+	 * @param scope				description of the content of the file searched
+	 * @param trigrams			distinct trigrams of content in ascending order, or null if content could not be indexed
+	 */
+	public void putTrigrams(String relativePath, long lastModified, long size, String scope, int[] trigrams) {
+		ensureLoaded();
+		if (System.currentTimeMillis() - lastModified < RACY_INTERVAL) {
+			lastModified = UNTRUSTED;
+		}
+		long pending = 0;
+		saveLock.readLock().lock();
+		try {
+			documents.put(relativePath, new Document(lastModified, size, scope.hashCode(), trigrams != null, null, -1, trigrams));
+			modified = true;
+			pending = (trigrams == null)? pendingTrigrams.get() : pendingTrigrams.addAndGet(trigrams.length);
+		} finally {
+			saveLock.readLock().unlock();
+		}
+		if (pending >= MAX_PENDING_TRIGRAMS) {
+			savePending();
+		}
+	}
+
+	/**
+	 * Saves the index if too many trigrams are held in memory, unless another thread has
+	 * saved it meanwhile.
+	 */
+	private synchronized void savePending() {
+		if (pendingTrigrams.get() >= MAX_PENDING_TRIGRAMS) {
+			try {
+				saveIfModified();
+			} catch (IOException e) {
+				log.error("Unable to save trigram index.", e);
+			}
+		}
+	}
+
+	/**
+	 * Drops the recorded trigrams of every file other than the given files, such as once a
+	 * walk of the whole tree has found which files still exist.
+	 *
+	 * @param relativePaths		paths of files to keep, relative to the root
+	 */
+	public void retainFiles(Set<String> relativePaths) {
+		ensureLoaded();
+		saveLock.readLock().lock();
+		try {
+			if (documents.keySet().retainAll(relativePaths)) {
+				modified = true;
+			}
+		} finally {
+			saveLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Saves the index if it has been modified since it was loaded or last saved.  Trigrams
+	 * held in memory are merged into the saved posting lists, and the saved file is mapped
+	 * in place of the previous one.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void saveIfModified() throws IOException {
+		if (!modified) {
+			return;
+		}
+		if (!ArchiveIndex.INDEX_DIRECTORY.isDirectory() && !ArchiveIndex.INDEX_DIRECTORY.mkdirs()) {
+			throw new IOException("Unable to create index directory " + ArchiveIndex.INDEX_DIRECTORY.getAbsolutePath());
+		}
+		File tempFile = File.createTempFile("trigram", ".tmp", ArchiveIndex.INDEX_DIRECTORY);
+		saveLock.writeLock().lock();
+		try {
+			modified = false;
+			List<String> paths = new ArrayList<String>(documents.keySet());
+			Collections.sort(paths);
+			Document[] saved = new Document[paths.size()];
+			for (int i=0; i<saved.length; i++) {
+				saved[i] = documents.get(paths.get(i));
+			}
+			write(tempFile, paths, saved);
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Saved trigram index of " + saved.length + " files beneath " + root + " to " + indexFile.getAbsolutePath());
+			Segment segment = null;
+			try {
+				segment = new Segment(readFile(indexFile));
+				segment.skipHeader(root);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Unable to map saved trigram index " + indexFile.getAbsolutePath() + "; indexed trigrams are kept in memory.", e);
+				return;
+			}
+			for (int i=0; i<saved.length; i++) {
+				Document document = saved[i];
+				documents.put(paths.get(i), new Document(document.lastModified, document.size, document.scope, document.indexed,
+						document.indexed? segment : null, i, null));
+			}
+			this.segment = segment;
+			pendingTrigrams.set(0);
+		} catch (IOException | RuntimeException e) {
+			modified = true;
+			tempFile.delete();
+			throw e;
+		} finally {
+			saveLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the index, merging the posting lists of the mapped file with the trigrams held
+	 * in memory.  Files are numbered in the order written.
+	 *
+	 * @param file			file to write to
+	 * @param paths			paths of files to write, sorted
+	 * @param saved			recorded files, in the same order as their paths
+	 *
+	 * @throws IOException
+	 */
+	private void write(File file, List<String> paths, Document[] saved) throws IOException {
+		Segment segment = this.segment;
+		int[] renumbered = new int[(segment == null)? 0 : segment.documentCount];	// new number of each mapped file, or -1
+		Arrays.fill(renumbered, -1);
+		int pairCount = 0;
+		for (int i=0; i<saved.length; i++) {
+			if (saved[i].segment != null) {
+				renumbered[saved[i].id] = i;
+			} else if (saved[i].trigrams != null) {
+				pairCount += saved[i].trigrams.length;
+			}
+		}
+		// trigrams held in memory, inverted to trigram and file number pairs
+		long[] pairs = new long[pairCount];
+		int p = 0;
+		for (int i=0; i<saved.length; i++) {
+			if (saved[i].segment == null && saved[i].trigrams != null) {
+				for (int trigram : saved[i].trigrams) {
+					pairs[p++] = ((long) trigram << 32) | i;
+				}
+			}
+		}
+		Arrays.sort(pairs);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, root);
+			out.writeInt(saved.length);
+			String previousPath = "";
+			for (int i=0; i<saved.length; i++) {
+				String path = paths.get(i);
+				int prefix = 0;
+				int maxPrefix = Math.min(Math.min(path.length(), previousPath.length()), 0xFFFF);
+				while (prefix < maxPrefix && path.charAt(prefix) == previousPath.charAt(prefix)) {
+					prefix++;
+				}
+				out.writeShort(prefix);
+				writeString(out, path.substring(prefix));
+				out.writeLong(saved[i].lastModified);
+				out.writeLong(saved[i].size);
+				out.writeInt(saved[i].scope);
+				out.writeBoolean(saved[i].indexed);
+				previousPath = path;
+			}
+			int postingsStart = out.size();
+			ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+			DataOutputStream table = new DataOutputStream(tableBytes);
+			int trigramCount = 0;
+			int[] ids = new int[1024];
+			int entry = 0;
+			int entryCount = (segment == null)? 0 : segment.trigramCount;
+			p = 0;
+			while (entry < entryCount || p < pairs.length) {
+				int trigram = Math.min((entry < entryCount)? segment.getTrigram(entry) : Integer.MAX_VALUE,
+						(p < pairs.length)? (int) (pairs[p] >>> 32) : Integer.MAX_VALUE);
+				int count = 0;
+				if (entry < entryCount && segment.getTrigram(entry) == trigram) {
+					for (int id : segment.getPostings(entry)) {
+						if (renumbered[id] >= 0) {
+							if (count == ids.length) {
+								ids = Arrays.copyOf(ids, count * 2);
+							}
+							ids[count++] = renumbered[id];
+						}
+					}
+					entry++;
+				}
+				for (; p < pairs.length && (int) (pairs[p] >>> 32) == trigram; p++) {
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2);
+					}
+					ids[count++] = (int) pairs[p];
+				}
+				if (count == 0) {
+					continue;
+				}
+				Arrays.sort(ids, 0, count);
+				table.writeInt(trigram);
+				table.writeInt(out.size() - postingsStart);
+				table.writeInt(count);
+				trigramCount++;
+				int previous = 0;
+				for (int i=0; i<count; i++) {
+					writeVarInt(out, ids[i] - previous);
+					previous = ids[i];
+				}
+			}
+			int tableStart = out.size();
+			tableBytes.writeTo(out);
+			if ((long) out.size() + TRAILER_SIZE >= Integer.MAX_VALUE) {
+				throw new IOException("Trigram index of " + root + " is too large to be mapped.");
+			}
+			out.writeInt(postingsStart);
+			out.writeInt(tableStart);
+			out.writeInt(trigramCount);
+		}
+	}
+
+	private void ensureLoaded() {
+		if (!loaded) {
+			synchronized (this) {
+				if (!loaded) {
+					load();
+					loaded = true;
+				}
+			}
+		}
+	}
+
+	private void load() {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		ByteBuffer buffer = null;
+		try {
+			buffer = readFile(indexFile);
+		} catch (IOException e) {
+			log.error("Unable to load trigram index " + indexFile.getAbsolutePath(), e);
+			return;
+		}
+		try {
+			Segment segment = new Segment(buffer);
+			if (!segment.skipHeader(root)) {
+				log.info("Trigram index " + indexFile.getAbsolutePath() + " is from another version or root and will be rebuilt.");
+				return;
+			}
+			List<String> paths = new ArrayList<String>(segment.documentCount);
+			List<Document> loadedDocuments = new ArrayList<Document>(segment.documentCount);
+			String previousPath = "";
+			for (int i=0; i<segment.documentCount; i++) {
+				int prefix = buffer.getShort() & 0xFFFF;
+				String path = previousPath.substring(0, prefix) + readString(buffer);
+				long lastModified = buffer.getLong();
+				long size = buffer.getLong();
+				int scope = buffer.getInt();
+				boolean indexed = (buffer.get() != 0);
+				paths.add(path);
+				loadedDocuments.add(new Document(lastModified, size, scope, indexed, indexed? segment : null, i, null));
+				previousPath = path;
+			}
+			for (int i=0; i<paths.size(); i++) {
+				documents.put(paths.get(i), loadedDocuments.get(i));
+			}
+			this.segment = segment;
+			log.info("Loaded trigram index of " + documents.size() + " files beneath " + root + " from " + indexFile.getAbsolutePath());
+		} catch (RuntimeException e) {
+			log.warn("Trigram index " + indexFile.getAbsolutePath() + " is corrupt and will be rebuilt.");
+		}
+	}
+
+	private static ByteBuffer readFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() >= Integer.MAX_VALUE) {
+				throw new IOException("Index file " + file.getAbsolutePath() + " is too large to be mapped.");
+			}
+			if (MAP_FILES) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Query for files containing any of a set of literals.  The files of a mapped index file
+	 * that may match are found once, by intersecting posting lists, and are then looked up
+	 * by file number; files indexed since are tested against their own trigrams.
+	 */
+	public class Query {
+
+		private final int[][] alternatives;		// trigrams of each literal
+		private final Map<Segment, BitSet> segmentMatches = new ConcurrentHashMap<Segment, BitSet>();
+
+		private Query(int[][] alternatives) {
+			this.alternatives = alternatives;
+		}
+
+		/**
+		 * Returns whether or not a recorded file may contain any of the literals.  Files that
+		 * are not recorded, or whose content could not be indexed, may contain anything.
+		 *
+		 * @param relativePath		path of file relative to the root, separated by /
+		 *
+		 * @return					whether or not file may match
+		 */
+		public boolean mayContain(String relativePath) {
+			Document document = documents.get(relativePath);
+			if (document == null || !document.indexed) {
+				return true;
+			}
+			if (document.segment == null) {
+				return mayContain(document.trigrams);
+			}
+			return segmentMatches.computeIfAbsent(document.segment, this::findMatches).get(document.id);
+		}
+
+		/**
+		 * Returns whether or not content with the given trigrams may contain any of the literals.
+		 *
+		 * @param trigrams		distinct trigrams of content in ascending order, or null if content could not be indexed
+		 *
+		 * @return				whether or not content may match
+		 */
+		public boolean mayContain(int[] trigrams) {
+			if (trigrams == null) {
+				return true;
+			}
+			for (int[] alternative : alternatives) {
+				if (Trigrams.containsAll(trigrams, alternative)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private BitSet findMatches(Segment segment) {
+			BitSet matches = new BitSet(segment.documentCount);
+			for (int[] alternative : alternatives) {
+				// intersect the shortest posting lists first, so the intersection shrinks fastest
+				long[] entries = new long[alternative.length];
+				for (int i=0; i<alternative.length; i++) {
+					int entry = segment.find(alternative[i]);
+					if (entry < 0) {
+						entries = null;
+						break;
+					}
+					entries[i] = ((long) segment.getCount(entry) << 32) | entry;
+				}
+				if (entries == null) {
+					continue;	// no file contains this trigram
+				}
+				Arrays.sort(entries);
+				int[] ids = segment.getPostings((int) entries[0]);
+				for (int i=1; i<entries.length && ids.length > 0; i++) {
+					ids = intersect(ids, segment.getPostings((int) entries[i]));
+				}
+				for (int id : ids) {
+					matches.set(id);
+				}
+			}
+			return matches;
+		}
+
+		private int[] intersect(int[] ids1, int[] ids2) {
+			int[] ids = new int[Math.min(ids1.length, ids2.length)];
+			int count = 0;
+			for (int i=0, j=0; i<ids1.length && j<ids2.length; ) {
+				if (ids1[i] < ids2[j]) {
+					i++;
+				} else if (ids1[i] > ids2[j]) {
+					j++;
+				} else {
+					ids[count++] = ids1[i];
+					i++;
+					j++;
+				}
+			}
+			return Arrays.copyOf(ids, count);
+		}
+	}
+
+	/**
+	 * Recorded trigrams of one file; either a file number within a mapped index file, or the
+	 * trigrams themselves for files indexed since the index file was mapped.
+	 */
+	private static class Document {
+
+		private final long lastModified;
+		private final long size;
+		private final int scope;			// hash of description of content searched
+		private final boolean indexed;		// false if content could not be indexed
+		private final Segment segment;		// mapped index file holding posting lists of file; null if held in memory
+		private final int id;				// number of file within mapped index file
+		private final int[] trigrams;		// null unless held in memory
+
+		public Document(long lastModified, long size, int scope, boolean indexed, Segment segment, int id, int[] trigrams) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.scope = scope;
+			this.indexed = indexed;
+			this.segment = segment;
+			this.id = id;
+			this.trigrams = trigrams;
+		}
+	}
+
+	/**
+	 * Mapped index file.  Posting lists are read with absolute reads only, so a segment can be
+	 * read by any number of threads.
+	 */
+	private static class Segment {
+
+		private final ByteBuffer buffer;
+		private final int postingsStart;
+		private final int tableStart;
+		private final int trigramCount;
+		private int documentCount;
+
+		public Segment(ByteBuffer buffer) {
+			this.buffer = buffer;
+			int trailer = buffer.limit() - TRAILER_SIZE;
+			this.postingsStart = buffer.getInt(trailer);
+			this.tableStart = buffer.getInt(trailer + 4);
+			this.trigramCount = buffer.getInt(trailer + 8);
+			if (postingsStart < 0 || tableStart < postingsStart || (long) tableStart + (long) trigramCount * TABLE_ENTRY_SIZE != trailer) {
+				throw new IllegalStateException("Trigram table is out of bounds.");
+			}
+		}
+
+		/**
+		 * Reads the header of the index file, leaving the buffer positioned at the table of files.
+		 *
+		 * @param root		root the index should be for
+		 *
+		 * @return			whether or not the index file is of this version and for the given root
+		 */
+		public boolean skipHeader(String root) {
+			buffer.position(0);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || !root.equals(readString(buffer))) {
+				return false;
+			}
+			this.documentCount = buffer.getInt();
+			return true;
+		}
+
+		public int getTrigram(int entry) {
+			return buffer.getInt(tableStart + entry * TABLE_ENTRY_SIZE);
+		}
+
+		public int getCount(int entry) {
+			return buffer.getInt(tableStart + entry * TABLE_ENTRY_SIZE + 8);
+		}
+
+		/**
+		 * Finds the table entry of a trigram.
+		 *
+		 * @param trigram		trigram to find
+		 *
+		 * @return				index of table entry, or -1 if no file contains the trigram
+		 */
+		public int find(int trigram) {
+			int low = 0;
+			int high = trigramCount - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midTrigram = getTrigram(mid);
+				if (midTrigram < trigram) {
+					low = mid + 1;
+				} else if (midTrigram > trigram) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Decodes the posting list of a table entry.
+		 *
+		 * @param entry		index of table entry
+		 *
+		 * @return			numbers of files containing the trigram, in ascending order
+		 */
+		public int[] getPostings(int entry) {
+			int position = postingsStart + buffer.getInt(tableStart + entry * TABLE_ENTRY_SIZE + 4);
+			int[] ids = new int[getCount(entry)];
+			int id = 0;
+			for (int i=0; i<ids.length; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = buffer.get(position++);
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				id += delta;
+				ids[i] = id;
+			}
+			return ids;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package org.xandercat.cat.scan.result;
+
+/**
+ * Node for an entry of an archive, such as a file within a ZIP file or a nested archive.
+ * Match detail nodes for the entry are its children.
+ */
+public class ArchiveEntryNode extends MatchResultNode {
+
+	private static final long serialVersionUID = 2024020501L;
+
+	public ArchiveEntryNode(String entryName) {
+		super(entryName);
+	}
+	
+	public ArchiveEntryNode(MatchResultNode matchResultNode) {
+		super(matchResultNode);
+	}
+	
+	/**
+	 * Gets the name of the archive entry, including any directories within the archive.
+	 * 
+	 * @return		entry name
+	 */
+	public String getEntryName() {
+		return (String) getUserObject();
+	}
+}
@@ -3,55 +3,116 @@ package org.xandercat.cat.scan.result;
 import java.io.File;
 import java.io.Serializable;
 import java.util.Enumeration;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 
 import org.xandercat.swing.tree.TreeStateSaveableNode;
 
+/**
+ * Node of a match result tree.  Nodes are kept small, as a result tree can hold millions of
+ * them: unique ids are sequential integers, and nodes for files and directories found by a
+ * search can be created as path nodes, which hold only their name and derive their file from
+ * the file of their parent node when it is asked for.
+ */
 public class MatchResultNode extends DefaultMutableTreeNode implements TreeStateSaveableNode {
 
-	private static final long serialVersionUID = 2010061501L;
+	private static final long serialVersionUID = 2024012901L;
+
+	private static final AtomicInteger nextUniqueId = new AtomicInteger();
+
+	private static final byte FILE = 1;			// node represents a file or directory
+	private static final byte DIRECTORY = 2;	// node represents a directory
+	private static final byte PATH = 4;			// file is derived from file of parent node
+
+	private final File file;	// file associated with node, if any; null for path nodes
+	private final int uniqueId;
+	private final byte flags;
 
-	private File file;	// file associated with node, if any
-	private String uniqueId;
-	
 	public MatchResultNode(File file) {
 		this(file.getName(), file);
 	}
-	
+
 	public MatchResultNode(String message) {
 		this(message, null);
 	}
-	
+
 	public MatchResultNode(String message, File file) {
 		super(message);
 		this.file = file;
-		this.uniqueId = UUID.randomUUID().toString();
+		this.uniqueId = nextUniqueId.incrementAndGet();
+		this.flags = (file == null)? 0 : (file.isDirectory()? (byte) (FILE | DIRECTORY) : FILE);
+	}
+
+	/**
+	 * Constructs a new path node; the file for the node is the file of the given name within
+	 * the file of the parent node.  Directory names are interned, as the same directory names
+	 * tend to appear throughout a result tree.
+	 *
+	 * @param name				file or directory name
+	 * @param directory			whether or not the node represents a directory
+	 */
+	public MatchResultNode(String name, boolean directory) {
+		super(directory? name.intern() : name);
+		this.file = null;
+		this.uniqueId = nextUniqueId.incrementAndGet();
+		this.flags = directory? (byte) (FILE | DIRECTORY | PATH) : (byte) (FILE | PATH);
 	}
-	
+
 	public MatchResultNode(MatchResultNode node) {
 		super(node.getUserObject());
 		this.file = node.file;
 		this.uniqueId = node.uniqueId;
+		this.flags = node.flags;
 		@SuppressWarnings("unchecked")
 		Enumeration<MatchResultNode> children = node.children();
 		while (children.hasMoreElements()) {
 			MatchResultNode matchResultNode = children.nextElement();
 			if (matchResultNode instanceof MetadataNode) {
 				add(new MetadataNode(matchResultNode));
+			} else if (matchResultNode instanceof ArchiveEntryNode) {
+				add(new ArchiveEntryNode(matchResultNode));
 			} else {
 				add(new MatchResultNode(matchResultNode));
 			}
 		}
 	}
-	
+
+	/**
+	 * Gets the file associated with the node.  For path nodes, the file is created on each
+	 * call from the file of the parent node.
+	 *
+	 * @return		file associated with node, or null if there is none
+	 */
 	public File getFile() {
+		if ((flags & PATH) != 0) {
+			File parentFile = (parent instanceof MatchResultNode)? ((MatchResultNode) parent).getFile() : null;
+			return (parentFile == null)? null : new File(parentFile, (String) getUserObject());
+		}
 		return file;
 	}
 
+	/**
+	 * Returns whether or not the node represents a file or directory.
+	 *
+	 * @return		whether or not node represents a file or directory
+	 */
+	public boolean isFileNode() {
+		return (flags & FILE) != 0;
+	}
+
+	/**
+	 * Returns whether or not the node represents a directory.  Unlike getFile().isDirectory(),
+	 * this never touches the file system.
+	 *
+	 * @return		whether or not node represents a directory
+	 */
+	public boolean isDirectory() {
+		return (flags & DIRECTORY) != 0;
+	}
+
 	@Override
 	public Serializable getUniqueId() {
-		return uniqueId;
+		return Integer.valueOf(uniqueId);
 	}
 }
@@ -33,8 +33,8 @@ public class MatchResultTreeCellRenderer implements TreeCellRenderer {
 			return label;
 		}
 		MatchResultNode node = (MatchResultNode) value;
-		if (node.getFile() != null) {
-			if (!node.getFile().isDirectory()) {
+		if (node.isFileNode()) {
+			if (!node.isDirectory()) {
 				label.setIcon(this.defaultRenderer.getDefaultLeafIcon());
 			} else if (leaf) {
 				label.setIcon(this.defaultRenderer.getDefaultClosedIcon());
@@ -0,0 +1,352 @@
+package org.xandercat.cat.scan.search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compiled rules of the .gitignore and .ignore files of one directory, in the syntax of
+ * .gitignore files: blank lines and lines starting with # are skipped, a leading ! negates a
+ * pattern, a trailing / matches only directories, a pattern containing a / other than at its
+ * end is anchored to the directory of the ignore file, and *, ?, [...] and ** are wildcards.
+ *
+ * Rules form a stack following the directory tree: each instance is linked to the rules of
+ * the nearest directory above it that has any.  A path is tested against the rules of the
+ * deepest directory first, and within a directory against the last matching rule, so that
+ * deeper and later rules override earlier ones.  Rules in .ignore files override those in a
+ * .gitignore file of the same directory.
+ *
+ * Compiled rules are cached by ignore file, and only compiled again once the file changes,
+ * so that repeated searches of a large tree do not parse the same ignore files every time.
+ * Instances are immutable and can be shared by any number of threads.
+ */
+public class IgnoreRules {
+
+	/**
+	 * Name of git ignore files.
+	 */
+	public static final String GITIGNORE = ".gitignore";
+
+	/**
+	 * Name of tool neutral ignore files, as read by ripgrep and other search tools.
+	 */
+	public static final String IGNORE = ".ignore";
+
+	private static final Logger log = LogManager.getLogger(IgnoreRules.class);
+
+	private static final int MAX_CACHED_FILES = 10000;
+	private static final Map<Path, CachedRules> cache = new ConcurrentHashMap<Path, CachedRules>();
+
+	private final IgnoreRules parent;
+	private final String directoryPath;		// path of directory relative to search root; empty or ending with /
+	private final List<Rule> rules;
+
+	private IgnoreRules(IgnoreRules parent, String directoryPath, List<Rule> rules) {
+		this.parent = parent;
+		this.directoryPath = directoryPath;
+		this.rules = rules;
+	}
+
+	/**
+	 * Gets the rules for a directory, given the ignore files found while listing it.
+	 *
+	 * @param parent				rules for the directories above the directory; may be null
+	 * @param directoryPath			path of directory relative to the search root; empty for the root, otherwise ending with /
+	 * @param gitignoreFile			.gitignore file of the directory, or null if none
+	 * @param gitignoreAttributes	attributes of .gitignore file, or null if none
+	 * @param ignoreFile			.ignore file of the directory, or null if none
+	 * @param ignoreAttributes		attributes of .ignore file, or null if none
+	 *
+	 * @return						rules for the directory; the parent rules if the directory has no rules of its own
+	 */
+	public static IgnoreRules load(IgnoreRules parent, String directoryPath,
+			Path gitignoreFile, BasicFileAttributes gitignoreAttributes, Path ignoreFile, BasicFileAttributes ignoreAttributes) {
+		List<Rule> rules = new ArrayList<Rule>();
+		if (gitignoreFile != null) {
+			rules.addAll(getRules(gitignoreFile, gitignoreAttributes));
+		}
+		if (ignoreFile != null) {
+			rules.addAll(getRules(ignoreFile, ignoreAttributes));
+		}
+		return rules.isEmpty()? parent : new IgnoreRules(parent, directoryPath, rules);
+	}
+
+	private static List<Rule> getRules(Path file, BasicFileAttributes attributes) {
+		CachedRules cachedRules = cache.get(file);
+		if (cachedRules != null && cachedRules.lastModified == attributes.lastModifiedTime().toMillis() && cachedRules.size == attributes.size()) {
+			return cachedRules.rules;
+		}
+		List<Rule> rules = new ArrayList<Rule>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				try {
+					Rule rule = Rule.parse(line);
+					if (rule != null) {
+						rules.add(rule);
+					}
+				} catch (PatternSyntaxException e) {
+					// git treats an invalid pattern, such as a reversed range, as matching nothing
+					log.warn("Invalid pattern in ignore file " + file + " is skipped: " + line, e);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read ignore file " + file + "; its rules are not applied.", e);
+			return Collections.emptyList();
+		}
+		rules = Collections.unmodifiableList(rules);
+		if (cache.size() >= MAX_CACHED_FILES) {
+			cache.clear();
+		}
+		cache.put(file, new CachedRules(attributes.lastModifiedTime().toMillis(), attributes.size(), rules));
+		return rules;
+	}
+
+	/**
+	 * Returns whether or not the given path is ignored.
+	 *
+	 * @param path			path relative to the search root
+	 * @param nameStart		index within path of the name of the file or directory
+	 * @param directory		whether or not the path is a directory
+	 *
+	 * @return				whether or not path is ignored
+	 */
+	public boolean isIgnored(String path, int nameStart, boolean directory) {
+		for (IgnoreRules ignoreRules = this; ignoreRules != null; ignoreRules = ignoreRules.parent) {
+			List<Rule> rules = ignoreRules.rules;
+			for (int i=rules.size()-1; i>=0; i--) {
+				Rule rule = rules.get(i);
+				if (rule.directoryOnly && !directory) {
+					continue;
+				}
+				if (rule.matches(path, rule.nameOnly? nameStart : ignoreRules.directoryPath.length())) {
+					return !rule.negated;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static class CachedRules {
+
+		private final long lastModified;
+		private final long size;
+		private final List<Rule> rules;
+
+		public CachedRules(long lastModified, long size, List<Rule> rules) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.rules = rules;
+		}
+	}
+
+	/**
+	 * A single compiled ignore pattern.  Patterns without wildcards are compared directly,
+	 * and patterns whose only wildcard is a leading * are compared by suffix; only other
+	 * patterns are compiled to regular expressions.
+	 */
+	private static class Rule {
+
+		private final boolean negated;
+		private final boolean directoryOnly;
+		private final boolean nameOnly;		// matched against name at any depth rather than path relative to directory
+		private final String literal;		// null unless pattern has no wildcards
+		private final String suffix;		// null unless only wildcard is a leading *
+		private final Pattern pattern;		// null if literal or suffix is set
+
+		private Rule(boolean negated, boolean directoryOnly, boolean nameOnly, String glob) {
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+			this.nameOnly = nameOnly;
+			if (!hasWildcards(glob, 0)) {
+				this.literal = glob;
+				this.suffix = null;
+				this.pattern = null;
+			} else if (glob.charAt(0) == '*' && !hasWildcards(glob, 1)) {
+				this.literal = null;
+				this.suffix = glob.substring(1);
+				this.pattern = null;
+			} else {
+				this.literal = null;
+				this.suffix = null;
+				this.pattern = Pattern.compile(toRegularExpression(glob));
+			}
+		}
+
+		/**
+		 * Parses a line of an ignore file.
+		 *
+		 * @param line		line of ignore file
+		 *
+		 * @return			rule, or null if line has no rule
+		 *
+		 * @throws PatternSyntaxException	if the pattern cannot be compiled
+		 */
+		public static Rule parse(String line) {
+			int end = line.length();
+			while (end > 0 && (line.charAt(end-1) == ' ' || line.charAt(end-1) == '\t') && !(end > 1 && line.charAt(end-2) == '\\')) {
+				end--;
+			}
+			String glob = line.substring(0, end);
+			if (glob.length() == 0 || glob.charAt(0) == '#') {
+				return null;
+			}
+			boolean negated = false;
+			if (glob.charAt(0) == '!') {
+				negated = true;
+				glob = glob.substring(1);
+			} else if (glob.startsWith("\\!") || glob.startsWith("\\#")) {
+				glob = glob.substring(1);
+			}
+			boolean directoryOnly = false;
+			if (glob.endsWith("/")) {
+				directoryOnly = true;
+				glob = glob.substring(0, glob.length() - 1);
+			}
+			boolean nameOnly = glob.indexOf('/') < 0;
+			if (glob.startsWith("/")) {
+				glob = glob.substring(1);
+			} else if (glob.startsWith("**/") && glob.indexOf('/', 3) < 0) {
+				glob = glob.substring(3);	// matches at any depth, as a pattern without a slash does
+				nameOnly = true;
+			}
+			if (glob.length() == 0) {
+				return null;
+			}
+			return new Rule(negated, directoryOnly, nameOnly, glob);
+		}
+
+		private static boolean hasWildcards(String glob, int from) {
+			for (int i=from; i<glob.length(); i++) {
+				char c = glob.charAt(i);
+				if (c == '*' || c == '?' || c == '[' || c == '\\') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static String toRegularExpression(String glob) {
+			StringBuilder sb = new StringBuilder();
+			int n = glob.length();
+			int i = 0;
+			while (i < n) {
+				char c = glob.charAt(i);
+				if (c == '*') {
+					int stars = i;
+					while (i < n && glob.charAt(i) == '*') {
+						i++;
+					}
+					boolean wholeSegment = (i - stars >= 2) && (stars == 0 || glob.charAt(stars-1) == '/') && (i == n || glob.charAt(i) == '/');
+					if (wholeSegment && i == n) {
+						sb.append(".*");				// trailing /** matches everything inside
+					} else if (wholeSegment) {
+						sb.append("(?:.*/)?");			// leading **/ or /**/ matches zero or more directories
+						i++;
+					} else {
+						sb.append("[^/]*");
+					}
+					continue;
+				}
+				if (c == '?') {
+					sb.append("[^/]");
+				} else if (c == '[' && findClassEnd(glob, i) > 0) {
+					int classEnd = findClassEnd(glob, i);
+					int j = i + 1;
+					sb.append('[');
+					if (glob.charAt(j) == '!' || glob.charAt(j) == '^') {
+						sb.append('^');
+						j++;
+					}
+					for (; j<classEnd; j++) {
+						char classChar = glob.charAt(j);
+						if (classChar == '\\' && j + 1 < classEnd) {
+							classChar = glob.charAt(++j);
+							appendEscaped(sb, classChar);
+						} else if (classChar == '-') {
+							sb.append('-');
+						} else {
+							appendEscaped(sb, classChar);
+						}
+					}
+					sb.append(']');
+					i = classEnd;
+				} else if (c == '\\' && i + 1 < n) {
+					appendEscaped(sb, glob.charAt(++i));
+				} else {
+					appendEscaped(sb, c);
+				}
+				i++;
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Finds the closing bracket of a bracket expression.
+		 *
+		 * @param glob		glob pattern
+		 * @param start		index of opening bracket
+		 *
+		 * @return			index of closing bracket, or -1 if there is none
+		 */
+		private static int findClassEnd(String glob, int start) {
+			int i = start + 1;
+			if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+				i++;
+			}
+			if (i < glob.length() && glob.charAt(i) == ']') {
+				i++;	// leading bracket is part of the expression
+			}
+			for (; i<glob.length(); i++) {
+				char c = glob.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == ']') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static void appendEscaped(StringBuilder sb, char c) {
+			if ("\\.[]{}()<>*+-=!?^$|&/".indexOf(c) >= 0) {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+
+		/**
+		 * Tests the given path, from the given index, against the rule.
+		 *
+		 * @param path		path relative to search root
+		 * @param from		index within path of the part to test
+		 *
+		 * @return			whether or not rule matches
+		 */
+		public boolean matches(String path, int from) {
+			if (literal != null) {
+				return path.length() - from == literal.length() && path.startsWith(literal, from);
+			}
+			if (suffix != null) {
+				int starEnd = path.length() - suffix.length();	// end of the part matched by the leading *
+				return starEnd >= from && path.endsWith(suffix)
+						&& (starEnd == from || path.lastIndexOf('/', starEnd - 1) < from);
+			}
+			return pattern.matcher(path).region(from, path.length()).matches();
+		}
+	}
+}
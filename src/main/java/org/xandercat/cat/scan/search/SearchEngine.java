@@ -0,0 +1,1121 @@
+package org.xandercat.cat.scan.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.scan.filter.AttributedFile;
+import org.xandercat.cat.scan.filter.BinarySkippingFilter;
+import org.xandercat.cat.scan.filter.ComparativeSearchFilter;
+import org.xandercat.cat.scan.filter.DirectoryStatistics;
+import org.xandercat.cat.scan.filter.DirectoryStatisticsFilter;
+import org.xandercat.cat.scan.filter.NamePatterns;
+import org.xandercat.cat.scan.filter.SearchFilter;
+import org.xandercat.cat.scan.filter.TrigramIndexedFilter;
+import org.xandercat.cat.scan.index.ArchiveIndex;
+import org.xandercat.cat.scan.index.IndexWatcher;
+import org.xandercat.cat.scan.index.MetadataEntry;
+import org.xandercat.cat.scan.index.MetadataIndex;
+import org.xandercat.cat.scan.index.TrigramIndex;
+import org.xandercat.cat.scan.result.MatchResultNode;
+
+/**
+ * Search engine for searching a directory tree with a search filter.  The engine has no
+ * user interface of its own; progress and matches are reported to a SearchListener as they
+ * happen and are not retained, so memory use does not grow with the number of matches.
+ *
+ * The search runs as a two stage pipeline.  The walker stage lists directories in parallel
+ * using a fork/join pool, with one task per directory, and feeds files into a bounded queue.
+ * Directories are listed through NIO and the attributes of each entry are read once; entries
+ * are passed on as AttributedFiles so that later stages do not stat them again.  The scanner
+ * stage is a pool of threads that take files from the queue and search them.  When the queue
+ * is full the walker waits, so memory use stays bounded no matter how large the tree is.
+ *
+ * Results can be received in two forms.  A SearchListener receives the result nodes of each
+ * matching file, as used to build a result tree.  A SearchSubscriber receives each match as a
+ * SearchMatch with its path, archive entry chain and detail lines, and controls through its
+ * subscription how many matches it is sent and whether the search continues.
+ *
+ * The walk can be pruned: directories whose names match exclusion patterns, and directories
+ * deeper than a maximum depth, are neither listed nor descended into.  Symbolic links are
+ * followed by default, with each directory's file key checked against those of the directories
+ * above it so that links leading back up the tree are not followed around in circles; links
+ * can instead be skipped altogether.  Optionally, .gitignore and .ignore files are read as the
+ * walk reaches them, and the files and directories they ignore are skipped the same way.
+ *
+ * Optionally, directory listings are kept in a persistent MetadataIndex of the directory
+ * being searched.  A directory whose last modified time is unchanged since it was recorded is
+ * then not listed again; its recorded entries are used instead, at the cost of one attribute
+ * read for the directory itself.  Filters that only look at names, sizes and times, such as
+ * file name and statistics searches, then need no further I/O for the directory.  The index
+ * can also be handed to the IndexWatcher once the search is done; directories the watcher
+ * keeps current are not read at all by later searches.
+ *
+ * Optionally, for filters that require literal text, such as text searches, the content of
+ * files is kept in a persistent TrigramIndex of the directory being searched.  Before a file
+ * is searched, the index is asked whether the file can contain the text; files it rules out
+ * are not opened.  Files not yet indexed, or changed since they were indexed, are read and
+ * indexed first by the scanner thread that takes them, so the index is built in parallel and
+ * only for files that have changed.
+ *
+ * Searches stop promptly when cancelled: walker threads check for cancellation between
+ * directory entries, and scanner threads are interrupted, which filters check for between
+ * archive entries and between buffers of file content.  A search can also be limited to a
+ * number of matching files, in which case it stops as soon as that many files have matched.
+ *
+ * An engine runs one search at a time.  Once cancelled, an engine stays cancelled.
+ */
+public class SearchEngine {
+
+	/**
+	 * Default number of threads used to search files.  Can be overridden with the
+	 * catscan.parallelism system property.
+	 */
+	public static final int DEFAULT_PARALLELISM = Integer.getInteger("catscan.parallelism", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Default number of threads used to list directories.  Can be overridden with the
+	 * catscan.walkerParallelism system property.
+	 */
+	public static final int DEFAULT_WALKER_PARALLELISM = Integer.getInteger("catscan.walkerParallelism", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Default maximum number of files waiting between the walker and scanner stages.  Can be
+	 * overridden with the catscan.queueCapacity system property.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = Integer.getInteger("catscan.queueCapacity", 1024);
+
+	private static final ScanJob END_OF_WALK = new ScanJob(null);
+
+	private static final Logger log = LogManager.getLogger(SearchEngine.class);
+
+	private final File directory;
+	private final SearchFilter filter;
+	private int parallelism = DEFAULT_PARALLELISM;
+	private int walkerParallelism = DEFAULT_WALKER_PARALLELISM;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private int maxMatches;
+	private NamePatterns excludedDirectories = NamePatterns.NONE;
+	private int maxDepth = -1;
+	private boolean followLinks = true;
+	private boolean useIgnoreFiles;
+	private boolean useMetadataIndex;
+	private boolean refreshMetadataIndex;
+	private boolean watchMetadataIndex;
+	private volatile MetadataIndex metadataIndex;
+	private boolean useTrigramIndex;
+	private volatile TrigramIndex trigramIndex;
+	private volatile TrigramIndex.Query trigramQuery;	// null unless the trigram index is used for this search
+	private volatile Set<String> trigramPaths;	// recorded files walked; null unless the whole tree is walked
+	private final AtomicInteger errors = new AtomicInteger();
+	private final AtomicInteger matchCount = new AtomicInteger();
+	private volatile boolean cancelled;
+	private volatile boolean limitReached;
+	private volatile boolean stopped;	// cancelled or limit reached; no further files are searched
+	private volatile boolean walkDone;
+	private volatile ExecutorService scanners;
+	private volatile SearchListener listener;
+	private volatile BlockingQueue<ScanJob> scanQueue;
+	private volatile SearchPipelineStatistics statistics;
+
+	/**
+	 * Constructs a new search engine.
+	 *
+	 * @param directory			directory to search
+	 * @param filter			filter to search with
+	 */
+	public SearchEngine(File directory, SearchFilter filter) {
+		this.directory = directory;
+		this.filter = filter;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public SearchFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Gets the number of threads used to search files.
+	 *
+	 * @return		parallelism level
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads used to search files.  This must be set before the search
+	 * is started.
+	 *
+	 * @param parallelism		parallelism level
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1.");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Gets the number of threads used to list directories.
+	 *
+	 * @return		walker parallelism level
+	 */
+	public int getWalkerParallelism() {
+		return walkerParallelism;
+	}
+
+	/**
+	 * Sets the number of threads used to list directories.  This must be set before the
+	 * search is started.
+	 *
+	 * @param walkerParallelism		walker parallelism level
+	 */
+	public void setWalkerParallelism(int walkerParallelism) {
+		if (walkerParallelism < 1) {
+			throw new IllegalArgumentException("Walker parallelism must be at least 1.");
+		}
+		this.walkerParallelism = walkerParallelism;
+	}
+
+	/**
+	 * Gets the maximum number of files that can wait between the walker and scanner stages.
+	 *
+	 * @return		queue capacity
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Sets the maximum number of files that can wait between the walker and scanner stages.
+	 * This must be set before the search is started.
+	 *
+	 * @param queueCapacity		queue capacity
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1.");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Gets the maximum number of matching files after which the search stops.
+	 *
+	 * @return		maximum number of matching files, or 0 if there is no limit
+	 */
+	public int getMaxMatches() {
+		return maxMatches;
+	}
+
+	/**
+	 * Sets the maximum number of matching files after which the search stops.  Once the limit
+	 * is reached, no further directories are listed and no further files are searched; files
+	 * already being searched are finished, but any further matches they produce are dropped.
+	 * The limit does not apply to results a comparative filter provides at the end of a search.
+	 * This must be set before the search is started.
+	 *
+	 * @param maxMatches		maximum number of matching files, or 0 for no limit
+	 */
+	public void setMaxMatches(int maxMatches) {
+		if (maxMatches < 0) {
+			throw new IllegalArgumentException("Maximum matches cannot be negative.");
+		}
+		this.maxMatches = maxMatches;
+	}
+
+	/**
+	 * Gets the name patterns of directories that are not searched.
+	 *
+	 * @return		comma separated list of name patterns, or null if no directories are excluded
+	 */
+	public String getExcludedDirectories() {
+		return excludedDirectories.getSource();
+	}
+
+	/**
+	 * Sets the name patterns of directories that are not searched, such as .git or
+	 * node_modules.  Name patterns are as for file name searches.  Directories matching any of
+	 * the patterns are skipped along with everything beneath them, without being listed.  The
+	 * directory being searched is never excluded.  This must be set before the search is started.
+	 *
+	 * @param excludedDirectories		comma separated list of name patterns; null or blank for none
+	 */
+	public void setExcludedDirectories(String excludedDirectories) {
+		this.excludedDirectories = new NamePatterns(excludedDirectories);
+	}
+
+	/**
+	 * Gets the number of levels of subdirectories beneath the directory being searched that
+	 * are searched.
+	 *
+	 * @return		maximum depth, or -1 if there is no limit
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Sets the number of levels of subdirectories beneath the directory being searched that
+	 * are searched.  At 0, only files directly within the directory are searched; at 1, files
+	 * within its immediate subdirectories are also searched, and so on.  This must be set
+	 * before the search is started.
+	 *
+	 * @param maxDepth		maximum depth, or -1 for no limit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < -1) {
+			throw new IllegalArgumentException("Maximum depth cannot be less than -1.");
+		}
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Returns whether or not symbolic links are followed.
+	 *
+	 * @return		whether or not symbolic links are followed
+	 */
+	public boolean isFollowLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * Sets whether or not symbolic links are followed.  When followed, links to directories
+	 * that are also above the link are not descended into, so cycles of links are walked only
+	 * once.  When not followed, symbolic links are skipped entirely, whether to files or to
+	 * directories.  This must be set before the search is started.
+	 *
+	 * @param followLinks		whether or not to follow symbolic links
+	 */
+	public void setFollowLinks(boolean followLinks) {
+		this.followLinks = followLinks;
+	}
+
+	/**
+	 * Returns whether or not files ignored by .gitignore and .ignore files are skipped.
+	 *
+	 * @return		whether or not ignore files are used
+	 */
+	public boolean isUseIgnoreFiles() {
+		return useIgnoreFiles;
+	}
+
+	/**
+	 * Sets whether or not files ignored by .gitignore and .ignore files are skipped.  Ignore
+	 * files are read as the walk reaches the directories containing them, and apply to the
+	 * directory and everything beneath it, as they do for git.  Ignored directories are not
+	 * listed and ignored files are not opened.  Ignore files in directories above the
+	 * directory being searched are not read.  This must be set before the search is started.
+	 *
+	 * @param useIgnoreFiles		whether or not to use ignore files
+	 */
+	public void setUseIgnoreFiles(boolean useIgnoreFiles) {
+		this.useIgnoreFiles = useIgnoreFiles;
+	}
+
+	/**
+	 * Returns whether or not directory listings are kept in a metadata index.
+	 *
+	 * @return		whether or not the metadata index is used
+	 */
+	public boolean isUseMetadataIndex() {
+		return useMetadataIndex;
+	}
+
+	/**
+	 * Sets whether or not directory listings are kept in a metadata index.  Directories are
+	 * only listed if they have changed since their listing was recorded; otherwise the recorded
+	 * entries, with their recorded sizes and times, are used.  Files changed in place do not
+	 * change their directory, so their sizes and times are as recorded until the index is
+	 * refreshed.  This must be set before the search is started.
+	 *
+	 * @param useMetadataIndex		whether or not to use the metadata index
+	 */
+	public void setUseMetadataIndex(boolean useMetadataIndex) {
+		this.useMetadataIndex = useMetadataIndex;
+	}
+
+	/**
+	 * Returns whether or not every directory is listed and recorded in the metadata index anew.
+	 *
+	 * @return		whether or not the metadata index is refreshed
+	 */
+	public boolean isRefreshMetadataIndex() {
+		return refreshMetadataIndex;
+	}
+
+	/**
+	 * Sets whether or not every directory is listed and recorded in the metadata index anew,
+	 * whether or not it has changed.  Only has an effect if the metadata index is used.  This
+	 * must be set before the search is started.
+	 *
+	 * @param refreshMetadataIndex		whether or not to refresh the metadata index
+	 */
+	public void setRefreshMetadataIndex(boolean refreshMetadataIndex) {
+		this.refreshMetadataIndex = refreshMetadataIndex;
+	}
+
+	/**
+	 * Returns whether or not the metadata index is kept current in the background after the
+	 * search.
+	 *
+	 * @return		whether or not the metadata index is watched
+	 */
+	public boolean isWatchMetadataIndex() {
+		return watchMetadataIndex;
+	}
+
+	/**
+	 * Sets whether or not the metadata index is kept current in the background after the
+	 * search, by the shared IndexWatcher.  Watching continues for as long as the application
+	 * runs, so this is of no use to short lived processes.  Only has an effect if the metadata
+	 * index is used.  This must be set before the search is started.
+	 *
+	 * @param watchMetadataIndex		whether or not to watch the metadata index
+	 */
+	public void setWatchMetadataIndex(boolean watchMetadataIndex) {
+		this.watchMetadataIndex = watchMetadataIndex;
+	}
+
+	/**
+	 * Returns whether or not file content is kept in a trigram index.
+	 *
+	 * @return		whether or not the trigram index is used
+	 */
+	public boolean isUseTrigramIndex() {
+		return useTrigramIndex;
+	}
+
+	/**
+	 * Sets whether or not file content is kept in a trigram index, which rules out files that
+	 * cannot contain the literal text the filter requires without opening them.  Only has an
+	 * effect for filters that implement TrigramIndexedFilter, and only when every literal is at
+	 * least three bytes long.  The first search with the index reads every file it searches
+	 * in full, to index it; later searches only read files that have changed.  Files recorded
+	 * in the index that no longer exist are dropped whenever the whole tree is searched.  This
+	 * must be set before the search is started.
+	 *
+	 * @param useTrigramIndex		whether or not to use the trigram index
+	 */
+	public void setUseTrigramIndex(boolean useTrigramIndex) {
+		this.useTrigramIndex = useTrigramIndex;
+	}
+
+	/**
+	 * Returns whether or not the search stopped early because the maximum number of matching
+	 * files was reached.
+	 *
+	 * @return		whether or not the match limit was reached
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * Gets the pipeline statistics for the search.  Statistics are not available until
+	 * the search has started.
+	 *
+	 * @return		pipeline statistics, or null if search has not started
+	 */
+	public SearchPipelineStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets the number of files that could not be searched due to errors.
+	 *
+	 * @return		number of errors
+	 */
+	public int getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * Gets the number of binary files and archive entries the filter skipped.
+	 *
+	 * @return		number of binary files skipped
+	 */
+	public int getBinaryFilesSkipped() {
+		return (filter instanceof BinarySkippingFilter)? ((BinarySkippingFilter) filter).getSkippedFileCount() : 0;
+	}
+
+	/**
+	 * Gets the total size of the binary files and archive entries the filter skipped.
+	 *
+	 * @return		total size of binary files skipped
+	 */
+	public long getBinaryBytesSkipped() {
+		return (filter instanceof BinarySkippingFilter)? ((BinarySkippingFilter) filter).getSkippedByteCount() : 0;
+	}
+
+	/**
+	 * Cancels the search.  Directories not yet listed are skipped, files not yet searched are
+	 * dropped, and scanner threads are interrupted so that files being searched are abandoned.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		this.stopped = true;
+		ExecutorService scanners = this.scanners;
+		if (scanners != null) {
+			scanners.shutdownNow(); // interrupts the scanner threads; they keep draining the queue until the walk ends
+		}
+	}
+
+	/**
+	 * Returns whether or not the search has been cancelled.
+	 *
+	 * @return		whether or not search has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Runs the search, sending matches to the given subscriber as they are found.  This
+	 * returns once the search has finished or has been cancelled through the subscription.
+	 *
+	 * @param subscriber		subscriber to send matches to
+	 */
+	public void subscribe(SearchSubscriber subscriber) {
+		MatchPublisher publisher = new MatchPublisher(subscriber);
+		subscriber.onSubscribe(publisher);
+		try {
+			search(publisher);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			publisher.fail(e);
+			return;
+		} catch (RuntimeException e) {
+			publisher.fail(e);
+			return;
+		}
+		publisher.complete();
+	}
+
+	/**
+	 * Runs the search, returning once all files have been searched or the search has been
+	 * cancelled.
+	 *
+	 * @param listener		listener to report progress and matches to
+	 *
+	 * @throws InterruptedException		if interrupted while waiting for the search to finish
+	 */
+	public void search(SearchListener listener) throws InterruptedException {
+		this.listener = listener;
+		this.errors.set(0);
+		if (this.filter instanceof ComparativeSearchFilter) {
+			((ComparativeSearchFilter) this.filter).beginSearch(this.directory);
+		}
+		if (this.filter instanceof BinarySkippingFilter) {
+			((BinarySkippingFilter) this.filter).resetSkipped();
+		}
+		this.trigramIndex = null;
+		this.trigramQuery = null;
+		this.trigramPaths = null;
+		if (this.useTrigramIndex && this.filter instanceof TrigramIndexedFilter) {
+			TrigramIndex trigramIndex = TrigramIndex.getInstance(this.directory);
+			this.trigramQuery = trigramIndex.newQuery(((TrigramIndexedFilter) this.filter).getRequiredText());
+			if (this.trigramQuery != null) {
+				this.trigramIndex = trigramIndex;
+				if (this.maxDepth < 0 && this.excludedDirectories.isEmpty() && !this.useIgnoreFiles) {
+					this.trigramPaths = ConcurrentHashMap.newKeySet();
+				}
+			}
+		}
+		int scannerThreads = this.parallelism;
+		this.scanQueue = new ArrayBlockingQueue<ScanJob>(this.queueCapacity);
+		this.statistics = new SearchPipelineStatistics(this.scanQueue, this.queueCapacity);
+		ExecutorService scanners = Executors.newFixedThreadPool(scannerThreads);
+		for (int i=0; i<scannerThreads; i++) {
+			scanners.execute(new ScanStage());
+		}
+		this.scanners = scanners;
+		if (this.cancelled) {
+			scanners.shutdownNow(); // cancelled before the scanners could be interrupted
+		}
+		this.metadataIndex = this.useMetadataIndex? MetadataIndex.getInstance(this.directory, this.followLinks) : null;
+		ForkJoinPool walkers = new ForkJoinPool(this.walkerParallelism);
+		BasicFileAttributes rootAttributes = readAttributes(this.directory.toPath(), true);
+		try {
+			walkers.invoke(new DirectorySearchTask(this.directory, null, rootAttributes));
+		} finally {
+			walkers.shutdown();
+			this.walkDone = true;
+			try {
+				endWalk(scanners, scannerThreads);
+				scanners.shutdown();
+				scanners.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				cancel();
+				throw e;
+			} finally {
+				scanners.shutdownNow(); // only has an effect if interrupted while waiting for the scanners
+			}
+		}
+		log.info("Search pipeline statistics: " + this.statistics.getSummary());
+		try {
+			ArchiveIndex.getInstance().saveIfModified();
+		} catch (IOException e) {
+			log.error("Unable to save archive index.", e);
+		}
+		if (this.metadataIndex != null) {
+			try {
+				this.metadataIndex.saveIfModified();
+			} catch (IOException e) {
+				log.error("Unable to save metadata index.", e);
+			}
+			if (this.watchMetadataIndex) {
+				IndexWatcher.getInstance().watch(this.metadataIndex);
+			}
+		}
+		if (this.trigramIndex != null) {
+			if (this.trigramPaths != null && !this.stopped) {
+				this.trigramIndex.retainFiles(this.trigramPaths);
+			}
+			try {
+				this.trigramIndex.saveIfModified();
+			} catch (IOException e) {
+				log.error("Unable to save trigram index.", e);
+			}
+		}
+		List<MatchResultNode> endSearchNodes = null;
+		if (this.filter instanceof ComparativeSearchFilter) {
+			endSearchNodes = ((ComparativeSearchFilter) this.filter).endSearch();
+		}
+		listener.searchCompleted(endSearchNodes);
+	}
+
+	/**
+	 * Signals the scanner threads that the walk is complete.  If the search is cancelled while
+	 * the queue is full, the scanners are interrupted instead; once the walk is complete,
+	 * interrupted scanners of a cancelled search stop without waiting for the signal.
+	 *
+	 * @param scanners			scanner thread pool
+	 * @param scannerThreads	number of scanner threads
+	 *
+	 * @throws InterruptedException
+	 */
+	private void endWalk(ExecutorService scanners, int scannerThreads) throws InterruptedException {
+		for (int i=0; i<scannerThreads; i++) {
+			while (!this.scanQueue.offer(END_OF_WALK, 100, TimeUnit.MILLISECONDS)) {
+				if (this.cancelled) {
+					scanners.shutdownNow();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the attributes for a directory entry in a single file system call.  If symbolic
+	 * links are followed and a link cannot be followed, the attributes of the link itself are
+	 * used.
+	 *
+	 * @param path				path of directory entry
+	 * @param followLinks		whether or not to follow symbolic links
+	 *
+	 * @return					entry attributes, or null if the entry no longer exists
+	 */
+	private static BasicFileAttributes readAttributes(Path path, boolean followLinks) {
+		if (!followLinks) {
+			try {
+				return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			try {
+				return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e2) {
+				return null;
+			}
+		}
+	}
+
+	private void searchFile(File file) {
+		if (this.stopped) {
+			return;
+		}
+		try {
+			this.listener.searchingFile(file);
+			if (this.trigramQuery != null && !mayMatch(file)) {
+				this.statistics.fileRuledOut();
+				return;
+			}
+			List<MatchResultNode> resultNodes = this.filter.search(file);
+			if (resultNodes != null && !this.cancelled) {
+				if (this.maxMatches > 0) {
+					int count = this.matchCount.incrementAndGet();
+					if (count > this.maxMatches) {
+						return;
+					}
+					if (count == this.maxMatches) {
+						this.limitReached = true;
+						this.stopped = true;
+					}
+				}
+				this.listener.matchFound(file, resultNodes);
+			}
+		} catch (IOException ioe) {
+			if (this.cancelled) {
+				return; // search was abandoned because it was cancelled
+			}
+			log.error("File could not be searched: " + file.getAbsolutePath(), ioe);
+			this.errors.incrementAndGet();
+		} catch (RuntimeException | StackOverflowError e) {
+			// e.g. a malformed archive entry or a pathological regular expression; the scanner
+			// thread must survive so that the queue keeps draining and the walker is not left blocked
+			log.error("File could not be searched: " + file.getAbsolutePath(), e);
+			this.errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Asks the trigram index whether a file can contain the text the filter requires.  A file
+	 * not yet indexed, or changed since it was indexed, is read and indexed first.
+	 *
+	 * @param file		file to be searched
+	 *
+	 * @return			whether or not file may match; false only if file cannot match
+	 */
+	private boolean mayMatch(File file) {
+		TrigramIndexedFilter indexedFilter = (TrigramIndexedFilter) this.filter;
+		String relativePath = this.directory.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+		Set<String> trigramPaths = this.trigramPaths;
+		if (trigramPaths != null && this.trigramIndex.isRecorded(relativePath)) {
+			trigramPaths.add(relativePath);
+		}
+		String scope = indexedFilter.getContentScope(file);
+		if (scope == null) {
+			return true;	// content is not searched
+		}
+		// attributes recorded in the metadata index may be out of date for files changed in place
+		BasicFileAttributes attributes = (file instanceof AttributedFile)? ((AttributedFile) file).getAttributes() : null;
+		if (attributes == null || attributes instanceof MetadataEntry) {
+			attributes = readAttributes(file.toPath(), this.followLinks);
+			if (attributes == null) {
+				return true;	// searched as usual, so that the error is reported
+			}
+		}
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+		if (this.trigramIndex.isCurrent(relativePath, lastModified, size, scope)) {
+			return this.trigramQuery.mayContain(relativePath);
+		}
+		int[] trigrams = null;
+		try {
+			trigrams = indexedFilter.readTrigrams(file);
+		} catch (IOException e) {
+			return true;	// searched as usual, so that the error is reported
+		}
+		this.trigramIndex.putTrigrams(relativePath, lastModified, size, scope, trigrams);
+		if (trigramPaths != null) {
+			trigramPaths.add(relativePath);
+		}
+		this.statistics.fileIndexed();
+		return this.trigramQuery.mayContain(trigrams);
+	}
+
+	/**
+	 * Passes a file from the walker stage to the scanner stage, waiting for space in the
+	 * queue if the scanners have fallen behind.
+	 *
+	 * @param job		file to be searched
+	 */
+	private void enqueue(ScanJob job) {
+		if (this.stopped) {
+			return;
+		}
+		if (!this.scanQueue.offer(job)) {
+			long start = System.nanoTime();
+			try {
+				this.scanQueue.put(job);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				this.statistics.walkerBlocked(System.nanoTime() - start);
+			}
+		}
+		this.statistics.queued();
+	}
+
+	/**
+	 * Adapts a SearchSubscriber to the listener interface of the engine, converting result
+	 * nodes to matches and holding back scanner threads while the subscriber has no demand.
+	 * Matches are sent while holding the lock of the publisher, so the subscriber is never
+	 * called by more than one thread at a time.
+	 */
+	private class MatchPublisher implements SearchListener, SearchSubscription {
+
+		private final SearchSubscriber subscriber;
+		private long demand;
+		private boolean done;
+
+		public MatchPublisher(SearchSubscriber subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public synchronized void request(long n) {
+			if (n <= 0) {
+				fail(new IllegalArgumentException("Number of matches requested must be positive."));
+				return;
+			}
+			this.demand += n;
+			if (this.demand < 0) {
+				this.demand = Long.MAX_VALUE;	// effectively unbounded
+			}
+			notifyAll();
+		}
+
+		public synchronized void cancel() {
+			this.done = true;
+			SearchEngine.this.cancel();
+			notifyAll();
+		}
+
+		public void searchingFile(File file) {
+		}
+
+		public void matchFound(File file, List<MatchResultNode> resultNodes) {
+			send(SearchMatch.fromResultNodes(file, resultNodes));
+		}
+
+		public void searchCompleted(List<MatchResultNode> resultNodes) {
+			if (resultNodes != null) {
+				List<SearchMatch> matches = new ArrayList<SearchMatch>();
+				for (MatchResultNode resultNode : resultNodes) {
+					if (resultNode.getFile() != null) {
+						List<String> details = new ArrayList<String>();
+						details.add(String.valueOf(resultNode.getUserObject()));
+						matches.add(new SearchMatch(resultNode.getFile(), new ArrayList<String>(), details));
+					}
+				}
+				send(matches);
+			}
+		}
+
+		private synchronized void send(List<SearchMatch> matches) {
+			for (SearchMatch match : matches) {
+				try {
+					while (this.demand == 0 && !this.done) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (this.done) {
+					return;
+				}
+				if (this.demand != Long.MAX_VALUE) {
+					this.demand--;
+				}
+				try {
+					this.subscriber.onMatch(match);
+				} catch (RuntimeException e) {
+					fail(e);
+					return;
+				}
+			}
+		}
+
+		private synchronized void complete() {
+			if (!this.done) {
+				this.done = true;
+				this.subscriber.onComplete();
+			}
+		}
+
+		private synchronized void fail(Throwable throwable) {
+			if (!this.done) {
+				this.done = true;
+				SearchEngine.this.cancel();
+				notifyAll();
+				this.subscriber.onError(throwable);
+			}
+		}
+	}
+
+	/**
+	 * File waiting to be searched.
+	 */
+	private static class ScanJob {
+
+		private final File file;
+
+		public ScanJob(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Scanner stage; takes files from the queue and searches them until the walker stage
+	 * signals that the walk is complete.
+	 */
+	private class ScanStage implements Runnable {
+
+		public void run() {
+			while (true) {
+				try {
+					long start = System.nanoTime();
+					ScanJob job = scanQueue.take();
+					long taken = System.nanoTime();
+					statistics.scannerIdle(taken - start);
+					if (job == END_OF_WALK) {
+						return;
+					}
+					searchFile(job.file);
+					statistics.fileScanned(System.nanoTime() - taken);
+				} catch (InterruptedException e) {
+					if (!cancelled || walkDone) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					// interrupted by cancellation during the walk; keep draining so the walker is not left blocked
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walker stage task for listing a directory.  Subdirectories are forked as separate tasks
+	 * so that idle walker threads can steal them; files are passed to the scanner stage.
+	 */
+	private class DirectorySearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 2024011501L;
+
+		private final File directory;
+		private final DirectorySearchTask parent;
+		private final BasicFileAttributes attributes;	// attributes of directory; null if they could not be read
+		private final String fileKey;	// string form of file key, comparable with keys recorded in the index; null if not supported
+		private final int level;		// number of directories between this directory and the directory being searched
+		private final String relativePath;	// path relative to directory being searched, ending with /; null unless ignore files or the index are used
+		private IgnoreRules ignoreRules;	// rules applying to entries of this directory; set before task is forked
+
+		// ignore files found while listing the directory
+		private AttributedFile gitignoreFile;
+		private AttributedFile ignoreFile;
+
+		// total size of everything beneath the directory; complete once the task is done
+		private long bytes;
+
+		public DirectorySearchTask(File directory, DirectorySearchTask parent, BasicFileAttributes attributes) {
+			this.directory = directory;
+			this.parent = parent;
+			this.attributes = attributes;
+			this.fileKey = (attributes == null || attributes.fileKey() == null)? null : attributes.fileKey().toString();
+			this.level = (parent == null)? 0 : parent.level + 1;
+			if (!useIgnoreFiles && metadataIndex == null) {
+				this.relativePath = null;
+			} else {
+				this.relativePath = (parent == null)? "" : parent.relativePath + directory.getName() + "/";
+			}
+		}
+
+		/**
+		 * Returns whether or not the given directory should be walked as a subdirectory of this
+		 * directory.  Decided from the name and attributes already read, without further I/O.
+		 * 
+		 * @param path			path of directory
+		 * @param attributes	attributes of directory
+		 * 
+		 * @return				whether or not to walk directory
+		 */
+		private boolean isWalked(Path path, BasicFileAttributes attributes) {
+			if (maxDepth >= 0 && this.level >= maxDepth) {
+				return false;
+			}
+			if (!excludedDirectories.isEmpty() && excludedDirectories.matches(path.getFileName().toString())) {
+				return false;
+			}
+			Object subdirectoryKey = attributes.fileKey();
+			if (followLinks && subdirectoryKey != null) {
+				String key = subdirectoryKey.toString();
+				for (DirectorySearchTask ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+					if (key.equals(ancestor.fileKey)) {
+						return false;	// link back up the tree
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Loads the rules of the ignore files of this directory, if any, and removes ignored
+		 * files and subdirectories before any of them are searched or listed.
+		 * 
+		 * @param files				files of directory
+		 * @param subtasks			tasks for subdirectories of directory
+		 */
+		private void removeIgnored(List<File> files, List<DirectorySearchTask> subtasks) {
+			AttributedFile gitignoreFile = this.gitignoreFile;
+			AttributedFile ignoreFile = this.ignoreFile;
+			if (gitignoreFile != null || ignoreFile != null) {
+				this.ignoreRules = IgnoreRules.load(this.ignoreRules, this.relativePath, 
+						(gitignoreFile == null)? null : gitignoreFile.toPath(), (gitignoreFile == null)? null : gitignoreFile.getAttributes(),
+						(ignoreFile == null)? null : ignoreFile.toPath(), (ignoreFile == null)? null : ignoreFile.getAttributes());
+			}
+			IgnoreRules ignoreRules = this.ignoreRules;
+			if (ignoreRules == null) {
+				return;
+			}
+			int nameStart = this.relativePath.length();
+			for (Iterator<File> iterator = files.iterator(); iterator.hasNext(); ) {
+				if (ignoreRules.isIgnored(this.relativePath + iterator.next().getName(), nameStart, false)) {
+					iterator.remove();
+				}
+			}
+			for (Iterator<DirectorySearchTask> iterator = subtasks.iterator(); iterator.hasNext(); ) {
+				DirectorySearchTask subtask = iterator.next();
+				if (ignoreRules.isIgnored(subtask.relativePath.substring(0, subtask.relativePath.length() - 1), nameStart, true)) {
+					iterator.remove();
+				} else {
+					subtask.ignoreRules = ignoreRules;
+				}
+			}
+		}
+
+		/**
+		 * Adds a directory entry to the files or subdirectories of this directory, unless it is
+		 * to be skipped.
+		 *
+		 * @param path			path of entry
+		 * @param attributes	attributes of entry
+		 * @param files			files of directory
+		 * @param subtasks		tasks for subdirectories of directory
+		 */
+		private void addEntry(Path path, BasicFileAttributes attributes, List<File> files, List<DirectorySearchTask> subtasks) {
+			if (attributes.isSymbolicLink() && !followLinks) {
+				return;
+			}
+			if (attributes.isDirectory()) {
+				if (isWalked(path, attributes)) {
+					subtasks.add(new DirectorySearchTask(new AttributedFile(path, attributes), this, attributes));
+				}
+			} else {
+				AttributedFile file = new AttributedFile(path, attributes);
+				files.add(file);
+				if (useIgnoreFiles && attributes.isRegularFile()) {
+					String name = file.getName();
+					if (IgnoreRules.GITIGNORE.equals(name)) {
+						this.gitignoreFile = file;
+					} else if (IgnoreRules.IGNORE.equals(name)) {
+						this.ignoreFile = file;
+					}
+				}
+			}
+		}
+
+		@Override
+		protected void compute() {
+			if (stopped) {
+				return;
+			}
+			filter.processingDirectory(this.directory);
+			long start = System.nanoTime();
+			List<File> files = new ArrayList<File>();
+			List<DirectorySearchTask> subtasks = new ArrayList<DirectorySearchTask>();
+			List<MetadataEntry> indexedEntries = null;
+			List<MetadataEntry> listedEntries = null;	// entries to record in the index; null unless the index is used
+			long lastModified = 0;
+			if (metadataIndex != null && !refreshMetadataIndex) {
+				indexedEntries = metadataIndex.getCurrentEntries(this.relativePath);	// kept current by the watcher; nothing to read
+			}
+			if (metadataIndex != null && indexedEntries == null) {
+				// attributes recorded in the index may be out of date; those read while listing the parent are current
+				BasicFileAttributes attributes = (this.attributes instanceof MetadataEntry)?
+						readAttributes(this.directory.toPath(), followLinks) : this.attributes;
+				if (attributes != null) {
+					lastModified = attributes.lastModifiedTime().toMillis();
+					if (!refreshMetadataIndex) {
+						indexedEntries = metadataIndex.getEntries(this.relativePath, lastModified);
+					}
+					if (indexedEntries == null) {
+						listedEntries = new ArrayList<MetadataEntry>();
+					}
+				}
+			}
+			if (indexedEntries != null) {
+				Path directoryPath = this.directory.toPath();
+				for (MetadataEntry entry : indexedEntries) {
+					if (stopped) {
+						return;
+					}
+					addEntry(directoryPath.resolve(entry.getName()), entry, files, subtasks);
+				}
+				statistics.directoryIndexed();
+			} else {
+				boolean listed = false;
+				try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(this.directory.toPath())) {
+					for (Path path : directoryStream) {
+						if (stopped) {
+							return;
+						}
+						BasicFileAttributes attributes = readAttributes(path, followLinks);
+						if (attributes != null) {
+							if (listedEntries != null) {
+								listedEntries.add(new MetadataEntry(path.getFileName().toString(), attributes));
+							}
+							addEntry(path, attributes, files, subtasks);
+						}
+					}
+					listed = true;
+				} catch (IOException | DirectoryIteratorException e) {
+					// unreadable directories are skipped, as they were when listed with File.listFiles()
+				}
+				if (listed && listedEntries != null) {
+					metadataIndex.putEntries(this.relativePath, lastModified, listedEntries);
+				}
+			}
+			if (useIgnoreFiles) {
+				removeIgnored(files, subtasks);
+			}
+			statistics.directoryListed(files.size() + subtasks.size(), System.nanoTime() - start);
+			for (DirectorySearchTask subtask : subtasks) {
+				subtask.fork();
+			}
+			for (File file : files) {
+				this.bytes += file.length();
+				enqueue(new ScanJob(file));
+			}
+			for (int i=subtasks.size()-1; i>=0; i--) {
+				DirectorySearchTask subtask = subtasks.get(i);
+				subtask.join();
+				// roll subdirectory totals up into this directory
+				this.bytes += subtask.bytes;
+			}
+			if (filter instanceof DirectoryStatisticsFilter && !stopped) {
+				((DirectoryStatisticsFilter) filter).directorySearched(this.directory, new DirectoryStatistics(this.bytes));
+			}
+		}
+	}
+}
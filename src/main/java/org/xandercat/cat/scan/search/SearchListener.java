@@ -0,0 +1,39 @@
+package org.xandercat.cat.scan.search;
+
+import java.io.File;
+import java.util.List;
+
+import org.xandercat.cat.scan.result.MatchResultNode;
+
+/**
+ * Listener for the progress and results of a search run by a SearchEngine.  Matches are
+ * reported as soon as they are found, and are not retained by the engine.
+ * 
+ * Methods other than searchCompleted are called from the threads of the search, possibly
+ * concurrently, so implementations must be thread safe.
+ */
+public interface SearchListener {
+
+	/**
+	 * Called when a file is about to be searched.
+	 * 
+	 * @param file				file about to be searched
+	 */
+	public void searchingFile(File file);
+	
+	/**
+	 * Called when a file matches.
+	 * 
+	 * @param file				file that matched
+	 * @param resultNodes		match detail nodes for the file; empty if the filter provides no details
+	 */
+	public void matchFound(File file, List<MatchResultNode> resultNodes);
+	
+	/**
+	 * Called once all files have been searched.  Results of filters that can only decide 
+	 * which files match once all files have been searched are provided here.
+	 * 
+	 * @param resultNodes		result nodes from the end of the search, or null if there are none
+	 */
+	public void searchCompleted(List<MatchResultNode> resultNodes);
+}
@@ -0,0 +1,132 @@
+package org.xandercat.cat.scan.search;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xandercat.cat.scan.result.ArchiveEntryNode;
+import org.xandercat.cat.scan.result.MatchResultNode;
+
+/**
+ * A single match found by a search: a file, or an entry within an archive file, along with
+ * the detail lines the filter reported for it.  Matches are immutable.
+ */
+public final class SearchMatch {
+
+	private final File file;
+	private final List<String> archivePath;
+	private final List<String> details;
+
+	/**
+	 * Constructs a new search match.
+	 *
+	 * @param file				file that matched, or archive file containing the entry that matched
+	 * @param archivePath		names of entries leading from the file to the entry that matched; empty if the file itself matched
+	 * @param details			match detail lines; may be empty
+	 */
+	public SearchMatch(File file, List<String> archivePath, List<String> details) {
+		this.file = file;
+		this.archivePath = Collections.unmodifiableList(new ArrayList<String>(archivePath));
+		this.details = Collections.unmodifiableList(new ArrayList<String>(details));
+	}
+
+	/**
+	 * Converts the result nodes a filter reported for a file into matches, with one match
+	 * for the file itself if it has details or no archive entries matched, and one match for
+	 * each archive entry that matched.  Archive entry nodes extend the archive path; any other
+	 * nodes are details of the match, with their own children as further details.
+	 *
+	 * @param file				file that matched
+	 * @param resultNodes		result nodes reported for the file
+	 *
+	 * @return					matches for the file
+	 */
+	public static List<SearchMatch> fromResultNodes(File file, List<MatchResultNode> resultNodes) {
+		List<SearchMatch> matches = new ArrayList<SearchMatch>();
+		addMatches(matches, file, new ArrayList<String>(), resultNodes);
+		return matches;
+	}
+
+	private static void addMatches(List<SearchMatch> matches, File file, List<String> archivePath, List<MatchResultNode> nodes) {
+		List<String> details = new ArrayList<String>();
+		boolean entriesFound = false;
+		int index = matches.size();
+		for (MatchResultNode node : nodes) {
+			if (node instanceof ArchiveEntryNode) {
+				entriesFound = true;
+				List<String> entryPath = new ArrayList<String>(archivePath);
+				entryPath.add(((ArchiveEntryNode) node).getEntryName());
+				addMatches(matches, file, entryPath, getChildren(node));
+			} else {
+				addDetails(details, node);
+			}
+		}
+		if (!entriesFound || !details.isEmpty()) {
+			matches.add(index, new SearchMatch(file, archivePath, details));
+		}
+	}
+
+	private static void addDetails(List<String> details, MatchResultNode node) {
+		details.add(String.valueOf(node.getUserObject()));
+		for (MatchResultNode child : getChildren(node)) {
+			addDetails(details, child);
+		}
+	}
+
+	private static List<MatchResultNode> getChildren(MatchResultNode node) {
+		List<MatchResultNode> children = new ArrayList<MatchResultNode>(node.getChildCount());
+		for (int i=0; i<node.getChildCount(); i++) {
+			children.add((MatchResultNode) node.getChildAt(i));
+		}
+		return children;
+	}
+
+	/**
+	 * Gets the file that matched, or the archive file containing the entry that matched.
+	 *
+	 * @return		file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the names of the entries leading from the file to the entry that matched.  For
+	 * an entry of a nested archive, this is the name of the nested archive followed by the
+	 * name of the entry within it.
+	 *
+	 * @return		archive entry names; empty if the file itself matched
+	 */
+	public List<String> getArchivePath() {
+		return archivePath;
+	}
+
+	/**
+	 * Gets the detail lines of the match, such as the lines of a text file that contain the
+	 * search string.
+	 *
+	 * @return		detail lines; empty if the filter reports no details
+	 */
+	public List<String> getDetails() {
+		return details;
+	}
+
+	/**
+	 * Gets the path of the match, with archive entries appended in the form archive!/entry.
+	 *
+	 * @return		path of match
+	 */
+	public String getPath() {
+		StringBuilder sb = new StringBuilder(file.getPath());
+		for (String entryName : archivePath) {
+			sb.append("!/").append(entryName);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return details.isEmpty()? getPath() : getPath() + ": " + details;
+	}
+}
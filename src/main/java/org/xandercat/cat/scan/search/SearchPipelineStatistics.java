@@ -0,0 +1,177 @@
+package org.xandercat.cat.scan.search;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the stages of the search pipeline.  The walker stage lists directories and
+ * feeds files into a bounded queue; the scanner stage takes files from the queue and searches
+ * them.  A queue that stays full while the walker spends time blocked means scanning is the
+ * bottleneck; an empty queue with idle scanners means directory listing is the bottleneck.
+ *
+ * All counters may be updated from any thread.
+ */
+public class SearchPipelineStatistics {
+
+	private final BlockingQueue<?> queue;
+	private final int queueCapacity;
+	private final AtomicLong directoriesListed = new AtomicLong();
+	private final AtomicLong directoriesIndexed = new AtomicLong();
+	private final AtomicLong entriesListed = new AtomicLong();
+	private final AtomicLong walkerBusyNanos = new AtomicLong();
+	private final AtomicLong walkerBlockedNanos = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final AtomicLong filesScanned = new AtomicLong();
+	private final AtomicLong filesIndexed = new AtomicLong();
+	private final AtomicLong filesRuledOut = new AtomicLong();
+	private final AtomicLong scannerBusyNanos = new AtomicLong();
+	private final AtomicLong scannerIdleNanos = new AtomicLong();
+
+	public SearchPipelineStatistics(BlockingQueue<?> queue, int queueCapacity) {
+		this.queue = queue;
+		this.queueCapacity = queueCapacity;
+	}
+
+	void directoryListed(int entries, long nanos) {
+		directoriesListed.incrementAndGet();
+		entriesListed.addAndGet(entries);
+		walkerBusyNanos.addAndGet(nanos);
+	}
+
+	void directoryIndexed() {
+		directoriesIndexed.incrementAndGet();
+	}
+
+	void walkerBlocked(long nanos) {
+		walkerBlockedNanos.addAndGet(nanos);
+	}
+
+	void queued() {
+		int depth = queue.size();
+		if (depth > maxQueueDepth.get()) {
+			maxQueueDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	void fileScanned(long nanos) {
+		filesScanned.incrementAndGet();
+		scannerBusyNanos.addAndGet(nanos);
+	}
+
+	void fileIndexed() {
+		filesIndexed.incrementAndGet();
+	}
+
+	void fileRuledOut() {
+		filesRuledOut.incrementAndGet();
+	}
+
+	void scannerIdle(long nanos) {
+		scannerIdleNanos.addAndGet(nanos);
+	}
+
+	public long getDirectoriesListed() {
+		return directoriesListed.get();
+	}
+
+	/**
+	 * Gets the number of directories whose entries were taken from the metadata index rather
+	 * than listed from disk.  These are included in the number of directories listed.
+	 *
+	 * @return		number of directories taken from the index
+	 */
+	public long getDirectoriesIndexed() {
+		return directoriesIndexed.get();
+	}
+
+	public long getEntriesListed() {
+		return entriesListed.get();
+	}
+
+	public long getWalkerBusyNanos() {
+		return walkerBusyNanos.get();
+	}
+
+	public long getWalkerBlockedNanos() {
+		return walkerBlockedNanos.get();
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public long getFilesScanned() {
+		return filesScanned.get();
+	}
+
+	/**
+	 * Gets the number of files read to add them to the trigram index.  These are included
+	 * in the number of files scanned.
+	 *
+	 * @return		number of files indexed
+	 */
+	public long getFilesIndexed() {
+		return filesIndexed.get();
+	}
+
+	/**
+	 * Gets the number of files the trigram index ruled out, which were not opened.  These
+	 * are included in the number of files scanned.
+	 *
+	 * @return		number of files ruled out
+	 */
+	public long getFilesRuledOut() {
+		return filesRuledOut.get();
+	}
+
+	public long getScannerBusyNanos() {
+		return scannerBusyNanos.get();
+	}
+
+	public long getScannerIdleNanos() {
+		return scannerIdleNanos.get();
+	}
+
+	private static String seconds(long nanos) {
+		return String.format("%.1fs", nanos / 1e9);
+	}
+
+	/**
+	 * Gets a one line summary of the pipeline counters.  Busy, blocked, and idle times are
+	 * summed over all threads of a stage.
+	 *
+	 * @return		summary of pipeline counters
+	 */
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Walker: ").append(getDirectoriesListed()).append(" directories");
+		if (getDirectoriesIndexed() > 0) {
+			sb.append(" (").append(getDirectoriesIndexed()).append(" from index)");
+		}
+		sb.append(", ").append(getEntriesListed()).append(" entries, busy ").append(seconds(getWalkerBusyNanos()))
+			.append(", blocked ").append(seconds(getWalkerBlockedNanos()));
+		sb.append("; Queue: ").append(getQueueDepth()).append('/').append(getQueueCapacity())
+			.append(" (max ").append(getMaxQueueDepth()).append(')');
+		sb.append("; Scanners: ").append(getFilesScanned()).append(" files");
+		if (getFilesIndexed() > 0 || getFilesRuledOut() > 0) {
+			sb.append(" (").append(getFilesIndexed()).append(" indexed, ").append(getFilesRuledOut()).append(" ruled out by index)");
+		}
+		sb.append(", busy ")
+			.append(seconds(getScannerBusyNanos())).append(", idle ").append(seconds(getScannerIdleNanos()));
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getSummary();
+	}
+}
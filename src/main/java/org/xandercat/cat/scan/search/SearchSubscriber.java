@@ -0,0 +1,41 @@
+package org.xandercat.cat.scan.search;
+
+/**
+ * Receiver of the matches of a search run with SearchEngine.subscribe(SearchSubscriber).
+ * This follows the shape of a reactive streams subscriber: the subscriber is first given a
+ * subscription, through which it requests matches, and then receives matches one at a time,
+ * never more than it has requested.  The search ends with a call to either onComplete or
+ * onError, unless it is cancelled first.
+ *
+ * Callbacks are made one at a time, though not always from the same thread.
+ */
+public interface SearchSubscriber {
+
+	/**
+	 * Called before any other method, once the search starts.  No matches are sent until
+	 * they are requested through the subscription.
+	 *
+	 * @param subscription		subscription for the search
+	 */
+	public void onSubscribe(SearchSubscription subscription);
+
+	/**
+	 * Called for each match, as soon as it is found.
+	 *
+	 * @param match				search match
+	 */
+	public void onMatch(SearchMatch match);
+
+	/**
+	 * Called once the search has finished and all matches have been sent.
+	 */
+	public void onComplete();
+
+	/**
+	 * Called if the search could not be finished.  Files that cannot be read do not end the
+	 * search; they are counted by SearchEngine.getErrorCount().
+	 *
+	 * @param throwable			cause of failure
+	 */
+	public void onError(Throwable throwable);
+}
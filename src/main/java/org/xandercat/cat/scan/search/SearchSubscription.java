@@ -0,0 +1,24 @@
+package org.xandercat.cat.scan.search;
+
+/**
+ * Link between a search and a SearchSubscriber, through which the subscriber controls how
+ * many matches it is sent and can cancel the search.  Methods may be called from any thread,
+ * including from within the callbacks of the subscriber.
+ */
+public interface SearchSubscription {
+
+	/**
+	 * Requests that up to the given number of further matches be sent to the subscriber.
+	 * Requests are cumulative.  While no matches are requested, the search waits for demand
+	 * rather than buffering matches, which in turn holds back the rest of the search pipeline.
+	 *
+	 * @param n			number of further matches to send; must be positive
+	 */
+	public void request(long n);
+
+	/**
+	 * Cancels the search.  No further matches are sent, and the search stops as soon as the
+	 * threads searching notice the cancellation.
+	 */
+	public void cancel();
+}
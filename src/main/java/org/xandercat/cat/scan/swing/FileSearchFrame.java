@@ -17,16 +17,19 @@ import java.util.concurrent.Executors;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingWorker;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.scan.filter.FileSearchFilter;
 import org.xandercat.cat.scan.filter.SearchFilter;
 import org.xandercat.cat.scan.filter.SearchFilterFactory;
+import org.xandercat.cat.scan.index.IndexWatcher;
 import org.xandercat.cat.scan.media.Icons;
 import org.xandercat.swing.app.ApplicationFrame;
 import org.xandercat.swing.dialog.AboutDialog;
@@ -75,7 +78,12 @@ public class FileSearchFrame extends ApplicationFrame {
 				try {
 					if (inputProcessor.validate()) {
 						FileSearchFilter filter = SearchFilterFactory.newFilter(searchPanel.getFilter());
-						executeSearch(filter, searchPanel.getDirectory());						
+						String criteriaError = filter.getCriteriaError();
+						if (criteriaError == null) {
+							executeSearch(filter, searchPanel);
+						} else {
+							JOptionPane.showMessageDialog(FileSearchFrame.this, criteriaError, "Invalid Search", JOptionPane.ERROR_MESSAGE);
+						}
 					} else {
 						ValidationErrorUtil.showMessageDialog(FileSearchFrame.this, 
 								inputProcessor, 
@@ -138,7 +146,8 @@ public class FileSearchFrame extends ApplicationFrame {
 		return mainPanel;
 	}
 	
-	private void executeSearch(FileSearchFilter filter, File directory) {
+	private void executeSearch(FileSearchFilter filter, SearchFilterPanel searchPanel) {
+		File directory = searchPanel.getDirectory();
 		log.info("Executing search: " + filter.getName() + "; search directory: " + directory.getAbsolutePath());
 		JPanel searchResultsPanel = new JPanel(new BorderLayout());
 		searchResultsPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
@@ -148,6 +157,25 @@ public class FileSearchFrame extends ApplicationFrame {
 		tab.setToolTipText(getSearchCriteriaText(filter, directory));
 		FileSearchWorker searchWorker = new FileSearchWorker(
 				searchResultsScrollPane, directory, filter, searchResultsStatusLabel);
+		searchWorker.setExcludedDirectories(searchPanel.getExcludedDirectories());
+		if (searchPanel.getMaxDepth() != null) {
+			searchWorker.setMaxDepth(searchPanel.getMaxDepth().intValue());
+		}
+		searchWorker.setFollowLinks(searchPanel.isFollowLinks());
+		searchWorker.setUseIgnoreFiles(searchPanel.isUseIgnoreFiles());
+		if (searchPanel.isUseMetadataIndex()) {
+			searchWorker.setUseMetadataIndex(true);
+			searchWorker.setWatchMetadataIndex(IndexWatcher.isEnabled());
+			searchWorker.addPropertyChangeListener(event -> {
+				if ("state".equals(event.getPropertyName()) && event.getNewValue() == SwingWorker.StateValue.DONE) {
+					searchPanel.updateIndexAge();
+				}
+			});
+		}
+		searchWorker.setUseTrigramIndex(searchPanel.isUseTrigramIndex());
+		if (searchPanel.getMaxMatches() != null) {
+			searchWorker.setMaxMatches(searchPanel.getMaxMatches().intValue());
+		}
 		searchResultsPanel.add(searchResultsScrollPane, BorderLayout.CENTER);
 		searchResultsPanel.add(searchResultsStatusLabel, BorderLayout.SOUTH);
 		String filterName = filter.getName();
@@ -7,12 +7,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
@@ -23,20 +24,30 @@ import javax.swing.tree.TreePath;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.xandercat.cat.scan.filter.ComparativeSearchFilter;
 import org.xandercat.cat.scan.filter.SearchFilter;
 import org.xandercat.cat.scan.result.MatchResultModel;
 import org.xandercat.cat.scan.result.MatchResultNode;
 import org.xandercat.cat.scan.result.MatchResultTreeCellRenderer;
 import org.xandercat.cat.scan.result.MetadataNode;
+import org.xandercat.cat.scan.search.SearchEngine;
+import org.xandercat.cat.scan.search.SearchListener;
+import org.xandercat.cat.scan.search.SearchPipelineStatistics;
+import org.xandercat.swing.file.BinaryPrefix;
 import org.xandercat.swing.label.RotatingIconLabel;
-import org.xandercat.swing.tree.TreeState;
 import org.xandercat.swing.util.FileUtil;
 
 /**
  * Background worker for performing a file search for a set of search parameters.
  * Search results are populated in a provided scroll pane.  Search progress will be
- * set through a label, if a label is provided.
+ * set through a label, if a label is provided.  The search itself is run by a SearchEngine,
+ * with the worker listening for matches.
+ * 
+ * Matches are queued by the scanner threads and merged into the live result tree on the
+ * event dispatch thread each time progress is published; only the new matches are inserted,
+ * and the tree is notified of each insertion, so the cost of a publish does not grow with
+ * the number of matches already shown.  Within each directory, files are always placed
+ * before directories and each group is ordered by name, so the final result tree does not
+ * depend on the order in which files are searched.
  * 
  * @author Scott Arnold
  */
@@ -55,15 +66,15 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 	private File directory;
 	private SearchFilter filter;
 	private JLabel statusLabel;
-	private MatchResultNode rootNode;
-	private final Lock rootLock = new ReentrantLock();
-	private int resultCountLastPublish;
-	private boolean matchesFound;
-	private int metadataLeafCount;
-	private volatile int errors;
-	private final Set<String> addedNodeIds = new HashSet<String>(); // maintained in order to, by default, expand newly added nodes
-	private final List<File> filesOnly = new ArrayList<File>();
-	private final List<File> directoriesOnly = new ArrayList<File>();
+	private final SearchEngine engine;
+	private final Queue<PendingMatch> pendingMatches = new ConcurrentLinkedQueue<PendingMatch>();
+	private volatile List<MatchResultNode> endSearchNodes;
+	// result tree state; confined to the event dispatch thread once the worker has been constructed
+	private final MatchResultNode rootNode;
+	private final MatchResultModel model;
+	private final Map<File, MatchResultNode> directoryNodes = new HashMap<File, MatchResultNode>();
+	private final List<MatchResultNode> addedNodes = new ArrayList<MatchResultNode>(); // maintained in order to, by default, expand newly added nodes
+	private int resultCount;
 	
 	/**
 	 * Constructs a new file search worker with the given parameters.
@@ -78,41 +89,331 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 		this.directory = directory;
 		this.filter = filter;
 		this.statusLabel = statusLabel;
-		this.rootNode = new MatchResultNode(this.directory.getAbsolutePath());
+		this.engine = new SearchEngine(directory, filter);
+		this.rootNode = new MatchResultNode(this.directory.getAbsolutePath(), this.directory);
+		this.model = new MatchResultModel(this.rootNode);
 		MetadataNode criteriaNode = new MetadataNode(filter.getName() + " Criteria");
 		Map<String, String> criteria = filter.getSearchCriteria();
-		this.metadataLeafCount = criteria.size();
 		for (Map.Entry<String, String> entry : criteria.entrySet()) {
 			criteriaNode.add(new MetadataNode(entry.getKey() + ": " + entry.getValue()));
 		}
 		this.rootNode.add(criteriaNode);
+		this.directoryNodes.put(this.directory, this.rootNode);
+	}
+	
+	/**
+	 * Gets the number of threads used to search files.
+	 * 
+	 * @return		parallelism level
+	 */
+	public int getParallelism() {
+		return this.engine.getParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to search files.  This must be set before the worker
+	 * is executed.
+	 * 
+	 * @param parallelism		parallelism level
+	 */
+	public void setParallelism(int parallelism) {
+		this.engine.setParallelism(parallelism);
+	}
+
+	/**
+	 * Gets the number of threads used to list directories.
+	 * 
+	 * @return		walker parallelism level
+	 */
+	public int getWalkerParallelism() {
+		return this.engine.getWalkerParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to list directories.  This must be set before the 
+	 * worker is executed.
+	 * 
+	 * @param walkerParallelism		walker parallelism level
+	 */
+	public void setWalkerParallelism(int walkerParallelism) {
+		this.engine.setWalkerParallelism(walkerParallelism);
+	}
+
+	/**
+	 * Gets the maximum number of files that can wait between the walker and scanner stages.
+	 * 
+	 * @return		queue capacity
+	 */
+	public int getQueueCapacity() {
+		return this.engine.getQueueCapacity();
+	}
+
+	/**
+	 * Sets the maximum number of files that can wait between the walker and scanner stages.
+	 * This must be set before the worker is executed.
+	 * 
+	 * @param queueCapacity		queue capacity
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.engine.setQueueCapacity(queueCapacity);
+	}
+	
+	/**
+	 * Gets the maximum number of matching files after which the search stops.
+	 * 
+	 * @return		maximum number of matching files, or 0 if there is no limit
+	 */
+	public int getMaxMatches() {
+		return this.engine.getMaxMatches();
+	}
+	
+	/**
+	 * Sets the maximum number of matching files after which the search stops.  This must be 
+	 * set before the worker is executed.
+	 * 
+	 * @param maxMatches		maximum number of matching files, or 0 for no limit
+	 */
+	public void setMaxMatches(int maxMatches) {
+		this.engine.setMaxMatches(maxMatches);
+	}
+	
+	/**
+	 * Gets the name patterns of directories that are not searched.
+	 * 
+	 * @return		comma separated list of name patterns, or null if no directories are excluded
+	 */
+	public String getExcludedDirectories() {
+		return this.engine.getExcludedDirectories();
+	}
+	
+	/**
+	 * Sets the name patterns of directories that are not searched.  This must be set before 
+	 * the worker is executed.
+	 * 
+	 * @param excludedDirectories		comma separated list of name patterns; null or blank for none
+	 */
+	public void setExcludedDirectories(String excludedDirectories) {
+		this.engine.setExcludedDirectories(excludedDirectories);
+	}
+	
+	/**
+	 * Gets the number of levels of subdirectories that are searched.
+	 * 
+	 * @return		maximum depth, or -1 if there is no limit
+	 */
+	public int getMaxDepth() {
+		return this.engine.getMaxDepth();
+	}
+	
+	/**
+	 * Sets the number of levels of subdirectories that are searched.  This must be set before
+	 * the worker is executed.
+	 * 
+	 * @param maxDepth		maximum depth, or -1 for no limit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.engine.setMaxDepth(maxDepth);
+	}
+	
+	/**
+	 * Returns whether or not symbolic links are followed.
+	 * 
+	 * @return		whether or not symbolic links are followed
+	 */
+	public boolean isFollowLinks() {
+		return this.engine.isFollowLinks();
+	}
+	
+	/**
+	 * Sets whether or not symbolic links are followed.  This must be set before the worker 
+	 * is executed.
+	 * 
+	 * @param followLinks		whether or not to follow symbolic links
+	 */
+	public void setFollowLinks(boolean followLinks) {
+		this.engine.setFollowLinks(followLinks);
+	}
+	
+	/**
+	 * Returns whether or not files ignored by .gitignore and .ignore files are skipped.
+	 * 
+	 * @return		whether or not ignore files are used
+	 */
+	public boolean isUseIgnoreFiles() {
+		return this.engine.isUseIgnoreFiles();
+	}
+	
+	/**
+	 * Sets whether or not files ignored by .gitignore and .ignore files are skipped.  This must
+	 * be set before the worker is executed.
+	 * 
+	 * @param useIgnoreFiles		whether or not to use ignore files
+	 */
+	public void setUseIgnoreFiles(boolean useIgnoreFiles) {
+		this.engine.setUseIgnoreFiles(useIgnoreFiles);
+	}
+	
+	/**
+	 * Returns whether or not directory listings are kept in a metadata index.
+	 * 
+	 * @return		whether or not the metadata index is used
+	 */
+	public boolean isUseMetadataIndex() {
+		return this.engine.isUseMetadataIndex();
+	}
+	
+	/**
+	 * Sets whether or not directory listings are kept in a metadata index.  This must be set
+	 * before the worker is executed.
+	 * 
+	 * @param useMetadataIndex		whether or not to use the metadata index
+	 */
+	public void setUseMetadataIndex(boolean useMetadataIndex) {
+		this.engine.setUseMetadataIndex(useMetadataIndex);
+	}
+	
+	/**
+	 * Returns whether or not the metadata index is kept current in the background after the
+	 * search.
+	 * 
+	 * @return		whether or not the metadata index is watched
+	 */
+	public boolean isWatchMetadataIndex() {
+		return this.engine.isWatchMetadataIndex();
 	}
 	
-	private void addNode(MatchResultNode parent, MatchResultNode child) {
-		this.rootLock.lock();
-		try {
-			parent.add(child);
-			addedNodeIds.add(child.getUniqueId().toString());
-		} finally {
-			this.rootLock.unlock();
-		}		
+	/**
+	 * Sets whether or not the metadata index is kept current in the background after the
+	 * search.  This must be set before the worker is executed.
+	 * 
+	 * @param watchMetadataIndex		whether or not to watch the metadata index
+	 */
+	public void setWatchMetadataIndex(boolean watchMetadataIndex) {
+		this.engine.setWatchMetadataIndex(watchMetadataIndex);
+	}
+	
+	/**
+	 * Returns whether or not file content is kept in a trigram index.
+	 * 
+	 * @return		whether or not the trigram index is used
+	 */
+	public boolean isUseTrigramIndex() {
+		return this.engine.isUseTrigramIndex();
+	}
+	
+	/**
+	 * Sets whether or not file content is kept in a trigram index.  This must be set before
+	 * the worker is executed.
+	 * 
+	 * @param useTrigramIndex		whether or not to use the trigram index
+	 */
+	public void setUseTrigramIndex(boolean useTrigramIndex) {
+		this.engine.setUseTrigramIndex(useTrigramIndex);
 	}
 	
-	private void addNodes(MatchResultNode parent, List<MatchResultNode> children) {
-		this.rootLock.lock();
-		try {
-			for (MatchResultNode child : children) {
-				parent.add(child);
-				addedNodeIds.add(child.getUniqueId().toString());
+	/**
+	 * Gets the pipeline statistics for the search.  Statistics are not available until
+	 * the worker has started.
+	 * 
+	 * @return		pipeline statistics, or null if search has not started
+	 */
+	public SearchPipelineStatistics getStatistics() {
+		return this.engine.getStatistics();
+	}
+
+	/**
+	 * Merges matches queued by the scanner threads into the result tree.  Must be called on
+	 * the event dispatch thread.
+	 */
+	private void mergePendingMatches() {
+		PendingMatch pendingMatch;
+		while ((pendingMatch = this.pendingMatches.poll()) != null) {
+			addMatch(pendingMatch.file, pendingMatch.resultNodes);
+		}
+	}
+	
+	/**
+	 * Adds a file match to the result tree, creating nodes for any directories between
+	 * the search directory and the file as needed.  Must be called on the event dispatch thread.
+	 * 
+	 * @param file				file that matched
+	 * @param resultNodes		match detail nodes for the file
+	 */
+	private void addMatch(File file, List<MatchResultNode> resultNodes) {
+		MatchResultNode parent = getDirectoryNode(file.getParentFile());
+		MatchResultNode fileNode = new MatchResultNode(file.getName(), false);
+		for (MatchResultNode resultNode : resultNodes) {
+			fileNode.add(resultNode);
+		}
+		this.resultCount += fileNode.getLeafCount();
+		insertOrdered(parent, fileNode);
+	}
+	
+	/**
+	 * Gets the result node for the given directory, creating it and any missing parent 
+	 * directory nodes if it does not yet exist.  Must be called on the event dispatch thread.
+	 * 
+	 * @param directory		directory within the search directory
+	 * 
+	 * @return				result node for directory
+	 */
+	private MatchResultNode getDirectoryNode(File directory) {
+		if (directory == null) {
+			return this.rootNode; // not expected, as the engine only reports files within the search directory
+		}
+		MatchResultNode node = this.directoryNodes.get(directory);
+		if (node == null) {
+			MatchResultNode parent = getDirectoryNode(directory.getParentFile());
+			node = new MatchResultNode(directory.getName(), true);
+			this.directoryNodes.put(directory, node);
+			insertOrdered(parent, node);
+		}
+		return node;
+	}
+	
+	/**
+	 * Inserts a file or directory node into its parent, keeping files before directories 
+	 * and each group in name order, and notifies the tree model of the insertion.  Must be 
+	 * called on the event dispatch thread.
+	 * 
+	 * @param parent		parent node
+	 * @param child			file or directory node to insert
+	 */
+	private void insertOrdered(MatchResultNode parent, MatchResultNode child) {
+		int low = 0;
+		int high = parent.getChildCount();
+		while (low < high && parent.getChildAt(low) instanceof MetadataNode) {
+			low++;
+		}
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareNodes((MatchResultNode) parent.getChildAt(mid), child) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
 			}
-		} finally {
-			this.rootLock.unlock();
-		}		
+		}
+		insert(parent, child, low);
 	}
 	
+	private void insert(MatchResultNode parent, MatchResultNode child, int index) {
+		parent.insert(child, index);
+		this.model.nodesWereInserted(parent, new int[] { index });
+		this.addedNodes.add(child);
+	}
+	
+	private int compareNodes(MatchResultNode node1, MatchResultNode node2) {
+		if (node1.isDirectory() != node2.isDirectory()) {
+			return node1.isDirectory()? 1 : -1;
+		}
+		String name1 = (String) node1.getUserObject();
+		String name2 = (String) node2.getUserObject();
+		int c = String.CASE_INSENSITIVE_ORDER.compare(name1, name2);
+		return (c == 0)? name1.compareTo(name2) : c;
+	}
 	
 	@Override
-	protected MatchResultModel doInBackground() throws IOException {
+	protected MatchResultModel doInBackground() throws InterruptedException {
 		if (this.statusLabel != null) {
 			SwingUtilities.invokeLater(new Runnable() {
 				public void run() {
@@ -120,30 +421,18 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 				}
 			});
 		}
-		if (this.filter instanceof ComparativeSearchFilter) {
-			((ComparativeSearchFilter) this.filter).beginSearch(this.directory);
-		}
-		search(this.rootNode, this.directory, this.filter);
-		if (this.filter instanceof ComparativeSearchFilter) {
-			List<MatchResultNode> endSearchNodes = ((ComparativeSearchFilter) this.filter).endSearch();
-			if (endSearchNodes != null && endSearchNodes.size() > 0) {
-				addNodes(rootNode, endSearchNodes);
+		this.engine.search(new SearchListener() {
+			public void searchingFile(File file) {
+				publish(file);
 			}
-		}		
-		matchesFound = rootNode.getChildCount() > 1;
-		if (!matchesFound) {
-			addNode(rootNode, new MatchResultNode(NO_MATCHES));
-		}
-		return buildModel();
-	}
-
-	private MatchResultModel buildModel() {
-		this.rootLock.lock();
-		try {
-			return new MatchResultModel(new MatchResultNode(this.rootNode));
-		} finally {
-			this.rootLock.unlock();
-		}
+			public void matchFound(File file, List<MatchResultNode> resultNodes) {
+				pendingMatches.add(new PendingMatch(file, resultNodes));
+			}
+			public void searchCompleted(List<MatchResultNode> resultNodes) {
+				endSearchNodes = resultNodes;
+			}
+		});
+		return this.model;
 	}
 	
 	private void setStatus(String message) {
@@ -152,6 +441,13 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 		}
 	}
 	
+	private void showStatistics() {
+		SearchPipelineStatistics statistics = this.engine.getStatistics();
+		if (this.statusLabel != null && statistics != null) {
+			this.statusLabel.setToolTipText(statistics.getSummary());
+		}
+	}
+	
 	private void setStatus(String message, boolean animate) {
 		setStatus(message);
 		if (this.statusLabel != null && (this.statusLabel instanceof RotatingIconLabel)) {
@@ -166,11 +462,24 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 	@Override
 	protected void done() {
 		if (isCancelled()) {
+			// the background thread may be waiting on the engine; stop the search itself
+			this.engine.cancel();
 			setStatus("Search cancelled.", false);
 		} else {
 			try {
-				showTree(get());
-				int resultCount = matchesFound? this.rootNode.getLeafCount()-metadataLeafCount : 0;
+				get();
+				mergePendingMatches();
+				List<MatchResultNode> endSearchNodes = this.endSearchNodes;
+				if (endSearchNodes != null) {
+					for (MatchResultNode endSearchNode : endSearchNodes) {
+						this.resultCount += endSearchNode.getLeafCount();
+						insert(this.rootNode, endSearchNode, this.rootNode.getChildCount());
+					}
+				}
+				if (this.rootNode.getChildCount() <= 1) {
+					insert(this.rootNode, new MatchResultNode(NO_MATCHES), this.rootNode.getChildCount());
+				}
+				showTree();
 				StringBuilder sb = new StringBuilder();
 				sb.append("Search complete - ").append(resultCount);
 				if (resultCount == 1) {
@@ -178,10 +487,20 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 				} else {
 					sb.append(" matches.");
 				}
+				if (this.engine.isLimitReached()) {
+					sb.append("  Stopped after ").append(this.engine.getMaxMatches()).append(" matching file(s).");
+				}
+				int binaryFilesSkipped = this.engine.getBinaryFilesSkipped();
+				if (binaryFilesSkipped > 0) {
+					sb.append("  ").append(binaryFilesSkipped).append(" binary file(s) skipped (")
+						.append(FileUtil.formatFileSize(this.engine.getBinaryBytesSkipped(), BinaryPrefix.GiB)).append(").");
+				}
+				int errors = this.engine.getErrorCount();
 				if (errors > 0) {
 					sb.append("  ").append(errors).append(" error(s) during search.");
 				}
 				setStatus(sb.toString(), false);
+				showStatistics();
 			} catch (Exception e) {
 				log.error("Unable to complete file search.", e);
 				setStatus("Search could not be completed due to an error.", false);
@@ -195,22 +514,20 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 			File latestFile = files.get(files.size()-1);
 			setStatus("Searching " + latestFile.getName() + "...");
 		}
-		int resultCount = 0;
-		this.rootLock.lock();
-		try {
-			resultCount = this.rootNode.getLeafCount()-metadataLeafCount;
-		} finally {
-			this.rootLock.unlock();
-		}
-		if (this.resultCountLastPublish < resultCount) {
-			this.resultCountLastPublish = resultCount;
-			showTree(buildModel());
+		showStatistics();
+		mergePendingMatches();
+		if (!this.addedNodes.isEmpty()) {
+			showTree();
 		}
 	}
 
-	private synchronized void showTree(MatchResultModel model) {
+	/**
+	 * Shows the result tree, creating it on first use, and expands nodes added since the
+	 * tree was last shown.  Must be called on the event dispatch thread.
+	 */
+	private void showTree() {
 		if (this.resultTree == null) {
-			this.resultTree = new JTree(model);
+			this.resultTree = new JTree(this.model);
 			this.resultTree.setToggleClickCount(0);
 			this.resultTree.addMouseListener(new MouseAdapter() {
 				@Override
@@ -253,69 +570,30 @@ public class FileSearchWorker extends SwingWorker<MatchResultModel, File> {
 				}
 			}
 		} else {
-			TreeState treeState = new TreeState();
-			treeState.store(resultTree);
-			this.resultTree.setModel(model);
-			treeState.applyTo(resultTree);
-			for (int i=0; i<resultTree.getRowCount(); i++) {
-				TreePath treePath = resultTree.getPathForRow(i);
-				MatchResultNode node = (MatchResultNode) treePath.getLastPathComponent();
-				if (addedNodeIds.contains(node.getUniqueId().toString())) {
-					resultTree.expandRow(i); // new rows are expanded by default
+			// new rows are expanded by default, unless they were added beneath a collapsed node
+			Set<MatchResultNode> expandedNodes = new HashSet<MatchResultNode>();
+			for (MatchResultNode node : this.addedNodes) {
+				MatchResultNode parent = (MatchResultNode) node.getParent();
+				if (expandedNodes.contains(parent) || this.resultTree.isExpanded(new TreePath(parent.getPath()))) {
+					this.resultTree.expandPath(new TreePath(node.getPath()));
+					expandedNodes.add(node);
 				}
-			}			
+			}
 		}
-		addedNodeIds.clear();
+		this.addedNodes.clear();
 	}
 	
-	private void orderFilesBeforeDirectories(File[] files) {
-		for (File file : files) {
-			if (file.isDirectory()) {
-				directoriesOnly.add(file);
-			} else {
-				filesOnly.add(file);
-			}
-		}
-		int i=0;
-		for (File file : filesOnly) {
-			files[i++] = file;
-		}
-		for (File file : directoriesOnly) {
-			files[i++] = file;
-		}
-		filesOnly.clear();
-		directoriesOnly.clear();
-	}
-	
-	private boolean search(MatchResultNode parent, File file, SearchFilter filter) {
-		if (file.isDirectory()) {
-			filter.processingDirectory(file);
-			File[] subfiles = file.listFiles();
-			boolean subfileMatchFound = false;
-			if (subfiles != null) {
-				orderFilesBeforeDirectories(subfiles);
-				for (File subfile : subfiles) {
-					MatchResultNode subnode = new MatchResultNode(subfile);
-					if (search(subnode, subfile, filter)) {
-						addNode(parent, subnode);
-						subfileMatchFound = true;
-					}
-				}
-			}
-			return subfileMatchFound;
-		} else {
-			try {
-				publish(file);
-				List<MatchResultNode> resultNodes = filter.search(file);
-				if (resultNodes != null) {
-					addNodes(parent, resultNodes);
-					return true;
-				}
-			} catch (IOException ioe) {
-				log.error("File could not be searched: " + file.getAbsolutePath(), ioe);
-				this.errors++;
-			}
+	/**
+	 * Match found by the search engine, waiting to be merged into the result tree.
+	 */
+	private static class PendingMatch {
+		
+		private final File file;
+		private final List<MatchResultNode> resultNodes;
+		
+		public PendingMatch(File file, List<MatchResultNode> resultNodes) {
+			this.file = file;
+			this.resultNodes = resultNodes;
 		}
-		return false;
 	}
 }
@@ -4,20 +4,37 @@ import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SpringLayout;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.scan.filter.FileNameSearchFilter;
 import org.xandercat.cat.scan.filter.FileSearchFilter;
+import org.xandercat.cat.scan.filter.TrigramIndexedFilter;
+import org.xandercat.cat.scan.index.IndexWatcher;
+import org.xandercat.cat.scan.index.MetadataIndex;
+import org.xandercat.cat.scan.result.MatchResultNode;
+import org.xandercat.cat.scan.search.SearchEngine;
+import org.xandercat.cat.scan.search.SearchListener;
 import org.xandercat.swing.util.SpringUtilities;
 import org.xandercat.swing.zenput.annotation.InputField;
 import org.xandercat.swing.zenput.annotation.ValidateFile;
 import org.xandercat.swing.zenput.annotation.ValidateFile.Mode;
+import org.xandercat.swing.zenput.annotation.ValidateInteger;
 import org.xandercat.swing.zenput.annotation.ValidateRequired;
 import org.xandercat.swing.zenput.error.ZenputException;
 import org.xandercat.swing.zenput.processor.CommitMode;
@@ -30,11 +47,15 @@ import org.xandercat.swing.zenput.processor.SourceProcessor;
  * must be added using the addInput(...) method.  Once all inputs are added,
  * a call to the finish() method is required to finish the panel layout.
  * 
+ * The panel also shows how long ago the metadata index of the directory entered was
+ * saved, and can refresh that index by listing every directory beneath it anew.
+ * 
  * @author Scott Arnold
  */
 public class SearchFilterPanel extends JPanel {
 
 	private static final long serialVersionUID = 2010062201L;
+	private static final Logger log = LogManager.getLogger(SearchFilterPanel.class);
 	
 	private int inputCount;
 	private JPanel inputPanel;
@@ -44,7 +65,36 @@ public class SearchFilterPanel extends JPanel {
 	@ValidateRequired
 	private File directory;
 	
+	@InputField(title="Exclude Directories")
+	private String excludedDirectories;
+	
+	@InputField(title="Max Depth")
+	@ValidateInteger(min=0)
+	private Integer maxDepth;
+	
+	@InputField(title="Follow Symbolic Links")
+	private boolean followLinks = true;
+	
+	@InputField(title="Skip Ignored Files")
+	private boolean useIgnoreFiles;
+	
+	@InputField(title="Use Metadata Index")
+	private boolean useMetadataIndex;
+	
+	@InputField(title="Use Trigram Index")
+	private boolean useTrigramIndex;
+	
+	@InputField(title="Stop After Matches")
+	@ValidateInteger(min=1)
+	private Integer maxMatches;
+	
 	private JTextField directoryField;
+	private JTextField excludedDirectoriesField;
+	private JCheckBox followLinksField;
+	private JCheckBox useIgnoreFilesField;
+	private JLabel indexAgeLabel;
+	private JButton refreshIndexButton;
+	private IndexRefreshWorker indexRefreshWorker;
 	private JFileChooser directoryChooser;
 	private FileSearchFilter filter;
 	private InputProcessor inputProcessor;
@@ -72,6 +122,48 @@ public class SearchFilterPanel extends JPanel {
 		directoryPanel.add(selectButton, BorderLayout.EAST);
 		this.inputProcessor.registerInput("directory", directoryField);
 		addInput("Directory", directoryPanel);
+		// walk options; these prune the directory tree for every search type
+		this.excludedDirectoriesField = new JTextField();
+		this.inputProcessor.registerInput("excludedDirectories", this.excludedDirectoriesField);
+		addInput("Exclude Directories", this.excludedDirectoriesField);
+		JTextField maxDepthField = new JTextField();
+		this.inputProcessor.registerInput("maxDepth", maxDepthField);
+		addInput("Max Depth", maxDepthField);
+		this.followLinksField = new JCheckBox("Follow Symbolic Links");
+		this.inputProcessor.registerInput("followLinks", this.followLinksField);
+		addInput(null, this.followLinksField);
+		this.useIgnoreFilesField = new JCheckBox("Skip Files Ignored by .gitignore and .ignore Files");
+		this.inputProcessor.registerInput("useIgnoreFiles", this.useIgnoreFilesField);
+		addInput(null, this.useIgnoreFilesField);
+		JPanel indexPanel = new JPanel(new BorderLayout(10, 0));
+		JCheckBox useMetadataIndexField = new JCheckBox("Use Metadata Index for Repeat Searches");
+		this.inputProcessor.registerInput("useMetadataIndex", useMetadataIndexField);
+		indexPanel.add(useMetadataIndexField, BorderLayout.WEST);
+		this.indexAgeLabel = new JLabel();
+		indexPanel.add(this.indexAgeLabel, BorderLayout.CENTER);
+		this.refreshIndexButton = new JButton("Refresh Index");
+		this.refreshIndexButton.addActionListener(event -> refreshIndex());
+		indexPanel.add(this.refreshIndexButton, BorderLayout.EAST);
+		addInput(null, indexPanel);
+		JCheckBox useTrigramIndexField = new JCheckBox("Use Trigram Index to Skip Files Without the Search Text");
+		this.inputProcessor.registerInput("useTrigramIndex", useTrigramIndexField);
+		if (filter instanceof TrigramIndexedFilter) {
+			addInput(null, useTrigramIndexField);	// only searches requiring literal text can use the index
+		}
+		this.directoryField.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent event) {
+				updateIndexAge();
+			}
+			public void removeUpdate(DocumentEvent event) {
+				updateIndexAge();
+			}
+			public void changedUpdate(DocumentEvent event) {
+				updateIndexAge();
+			}
+		});
+		this.followLinksField.addItemListener(event -> updateIndexAge());
+		new Timer(60000, event -> updateIndexAge()).start();
+		updateIndexAge();
 	}
 	
 	public File getDirectory() {
@@ -82,6 +174,62 @@ public class SearchFilterPanel extends JPanel {
 		this.directory = directory;
 	}
 
+	public String getExcludedDirectories() {
+		return excludedDirectories;
+	}
+
+	public void setExcludedDirectories(String excludedDirectories) {
+		this.excludedDirectories = excludedDirectories;
+	}
+
+	public Integer getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(Integer maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public boolean isFollowLinks() {
+		return followLinks;
+	}
+
+	public void setFollowLinks(boolean followLinks) {
+		this.followLinks = followLinks;
+	}
+
+	public boolean isUseIgnoreFiles() {
+		return useIgnoreFiles;
+	}
+
+	public void setUseIgnoreFiles(boolean useIgnoreFiles) {
+		this.useIgnoreFiles = useIgnoreFiles;
+	}
+
+	public boolean isUseMetadataIndex() {
+		return useMetadataIndex;
+	}
+
+	public void setUseMetadataIndex(boolean useMetadataIndex) {
+		this.useMetadataIndex = useMetadataIndex;
+	}
+
+	public boolean isUseTrigramIndex() {
+		return useTrigramIndex;
+	}
+
+	public void setUseTrigramIndex(boolean useTrigramIndex) {
+		this.useTrigramIndex = useTrigramIndex;
+	}
+
+	public Integer getMaxMatches() {
+		return maxMatches;
+	}
+
+	public void setMaxMatches(Integer maxMatches) {
+		this.maxMatches = maxMatches;
+	}
+
 	public FileSearchFilter getFilter() {
 		return filter;
 	}
@@ -109,6 +257,76 @@ public class SearchFilterPanel extends JPanel {
 		this.inputPanel.add(component);
 	}
 	
+	/**
+	 * Gets the directory currently entered, whether or not it has been committed.
+	 * 
+	 * @return		directory entered, or null if none
+	 */
+	private File getEnteredDirectory() {
+		String path = this.directoryField.getText().trim();
+		return (path.length() == 0)? null : new File(path);
+	}
+	
+	/**
+	 * Shows how long ago the metadata index of the directory entered was saved, or that it is
+	 * being kept current.  This is also updated every minute, and whenever the directory 
+	 * entered changes.
+	 */
+	public void updateIndexAge() {
+		if (this.indexRefreshWorker != null) {
+			return;	// refresh progress is shown until the refresh is done
+		}
+		File directory = getEnteredDirectory();
+		boolean followLinks = this.followLinksField.isSelected();
+		long lastSaved = (directory == null)? 0 : MetadataIndex.getLastSaved(directory, followLinks);
+		if (lastSaved == 0) {
+			this.indexAgeLabel.setText("Not indexed");
+		} else if (MetadataIndex.isWatched(directory, followLinks)) {
+			this.indexAgeLabel.setText("Indexed, kept current while running");
+		} else {
+			this.indexAgeLabel.setText("Indexed " + formatAge(System.currentTimeMillis() - lastSaved));
+		}
+	}
+	
+	private static String formatAge(long age) {
+		long minutes = age / 60000;
+		if (minutes < 1) {
+			return "less than a minute ago";
+		} else if (minutes < 60) {
+			return minutes + " minute(s) ago";
+		} else if (minutes < 60 * 24) {
+			return (minutes / 60) + " hour(s) ago";
+		}
+		return (minutes / (60 * 24)) + " day(s) ago";
+	}
+	
+	/**
+	 * Refreshes the metadata index of the directory entered in the background, listing every 
+	 * directory beneath it anew.  Excluded and ignored directories are skipped, as they are 
+	 * for searches, but depth is not limited.
+	 */
+	private void refreshIndex() {
+		File directory = getEnteredDirectory();
+		if (directory == null || !directory.isDirectory()) {
+			JOptionPane.showMessageDialog(this, "Enter an existing directory to refresh its index.", "Refresh Index", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		FileNameSearchFilter filter = new FileNameSearchFilter();
+		filter.setNamePatterns(null);		// matches nothing, so no file is opened
+		filter.setZipNamePatterns(null);
+		SearchEngine engine = new SearchEngine(directory, filter);
+		engine.setUseMetadataIndex(true);
+		engine.setRefreshMetadataIndex(true);
+		engine.setWatchMetadataIndex(IndexWatcher.isEnabled());
+		engine.setExcludedDirectories(this.excludedDirectoriesField.getText());
+		engine.setFollowLinks(this.followLinksField.isSelected());
+		engine.setUseIgnoreFiles(this.useIgnoreFilesField.isSelected());
+		this.refreshIndexButton.setEnabled(false);
+		this.indexAgeLabel.setText("Refreshing index...");
+		this.indexRefreshWorker = new IndexRefreshWorker(engine);
+		this.indexRefreshWorker.execute();
+	}
+	
 	/**
 	 * Finish layout of the panel.  Call this method after all inputs have been added.
 	 */
@@ -117,4 +335,42 @@ public class SearchFilterPanel extends JPanel {
 		add(this.inputPanel, BorderLayout.NORTH);
 		add(new JPanel(), BorderLayout.CENTER);
 	}
+	
+	/**
+	 * Background worker for refreshing a metadata index.
+	 */
+	private class IndexRefreshWorker extends SwingWorker<Void, Void> {
+		
+		private final SearchEngine engine;
+		
+		public IndexRefreshWorker(SearchEngine engine) {
+			this.engine = engine;
+		}
+		
+		@Override
+		protected Void doInBackground() throws InterruptedException {
+			this.engine.search(new SearchListener() {
+				public void searchingFile(File file) {
+				}
+				public void matchFound(File file, List<MatchResultNode> resultNodes) {
+				}
+				public void searchCompleted(List<MatchResultNode> resultNodes) {
+				}
+			});
+			return null;
+		}
+		
+		@Override
+		protected void done() {
+			indexRefreshWorker = null;
+			refreshIndexButton.setEnabled(true);
+			try {
+				get();
+				updateIndexAge();
+			} catch (Exception e) {
+				log.error("Unable to refresh metadata index of " + this.engine.getDirectory().getAbsolutePath(), e);
+				indexAgeLabel.setText("Index could not be refreshed.");
+			}
+		}
+	}
 }
@@ -5,6 +5,7 @@ import javax.swing.JComboBox;
 import javax.swing.JTextField;
 
 import org.xandercat.cat.scan.filter.ClassSearchFilter;
+import org.xandercat.cat.scan.filter.ComparativeSearchFilter;
 import org.xandercat.cat.scan.filter.FileNameSearchFilter;
 import org.xandercat.cat.scan.filter.FileSearchFilter;
 import org.xandercat.cat.scan.filter.SearchFilterFactory;
@@ -39,9 +40,21 @@ public class SearchFilterPanelFactory {
 			final JTextField searchStringField = new JTextField();
 			inputProcessor.registerInput("searchString", searchStringField);
 			panel.addInput("Search String", searchStringField);
+			final JComboBox<TextSearchFilter.SearchMode> searchModeField = new JComboBox<TextSearchFilter.SearchMode>(TextSearchFilter.SearchMode.values());
+			inputProcessor.registerInput("searchMode", searchModeField, TextSearchFilter.SearchMode.class);
+			panel.addInput("Search Mode", searchModeField);
 			final JCheckBox caseSensitiveField = new JCheckBox("Case Sensitive");
 			inputProcessor.registerInput("caseSensitive", caseSensitiveField);
 			panel.addInput(null, caseSensitiveField);
+			final JComboBox<TextSearchFilter.MatchReport> matchReportField = new JComboBox<TextSearchFilter.MatchReport>(TextSearchFilter.MatchReport.values());
+			inputProcessor.registerInput("matchReport", matchReportField, TextSearchFilter.MatchReport.class);
+			panel.addInput("Report", matchReportField);
+			final JTextField maxLinesField = new JTextField();
+			inputProcessor.registerInput("maxLines", maxLinesField);
+			panel.addInput("Max Lines Per File", maxLinesField);
+			final JComboBox<TextSearchFilter.BinaryFiles> binaryFilesField = new JComboBox<TextSearchFilter.BinaryFiles>(TextSearchFilter.BinaryFiles.values());
+			inputProcessor.registerInput("binaryFiles", binaryFilesField, TextSearchFilter.BinaryFiles.class);
+			panel.addInput("Binary Files", binaryFilesField);
 		}
 		if (filter instanceof StatSearchFilter) {
 			final JComboBox<StatSearchFilter.Stat> statTypeField = new JComboBox<StatSearchFilter.Stat>(StatSearchFilter.Stat.values());
@@ -51,6 +64,12 @@ public class SearchFilterPanelFactory {
 			inputProcessor.registerInput("maxResults", maxResultsField);
 			panel.addInput("Max Results", maxResultsField);
 		}
+		if (!(filter instanceof ComparativeSearchFilter)) {
+			// comparative filters only decide on matches once the whole tree has been searched
+			final JTextField maxMatchesField = new JTextField();
+			inputProcessor.registerInput("maxMatches", maxMatchesField);
+			panel.addInput("Stop After Matches", maxMatchesField);
+		}
 		panel.finish();
 		return panel;
 	}
@@ -0,0 +1,158 @@
+package org.xandercat.cat.scan.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick matcher for finding any of a set of byte sequences within a byte array in a
+ * single pass, whatever the number of sequences.  The sequences are compiled into a
+ * deterministic automaton with one table lookup per byte searched.  To keep the table small,
+ * bytes that appear in no sequence share a single column, as do bytes that are equal once
+ * folded; matching can optionally fold ASCII letters to lower case.
+ *
+ * Instances are immutable and can be shared by any number of threads.
+ */
+public class AhoCorasickMatcher implements ByteMatcher {
+
+	private final char[] classes = new char[256];	// column of the transition table for each byte
+	private final int classCount;
+	private final int[] transitions;				// next state, indexed by state * classCount + class
+	private final int[] matchLengths;				// length of longest sequence ending at each state; 0 if none
+	private final int maxLength;
+
+	/**
+	 * Constructs a new matcher for the given byte sequences.
+	 *
+	 * @param needles					byte sequences to search for; must not be empty or contain empty sequences
+	 * @param asciiCaseInsensitive		whether or not ASCII letters should match regardless of case
+	 */
+	public AhoCorasickMatcher(List<byte[]> needles, boolean asciiCaseInsensitive) {
+		if (needles.isEmpty()) {
+			throw new IllegalArgumentException("At least one byte sequence is required.");
+		}
+		// assign a column to each distinct (folded) byte used by the sequences; column 0 is for all other bytes
+		int[] foldedClasses = new int[256];
+		int nextClass = 1;
+		int longest = 0;
+		for (byte[] needle : needles) {
+			if (needle.length == 0) {
+				throw new IllegalArgumentException("Search bytes cannot be empty.");
+			}
+			longest = Math.max(longest, needle.length);
+			for (byte b : needle) {
+				int folded = fold(b & 0xFF, asciiCaseInsensitive);
+				if (foldedClasses[folded] == 0) {
+					foldedClasses[folded] = nextClass++;
+				}
+			}
+		}
+		for (int i=0; i<256; i++) {
+			this.classes[i] = (char) foldedClasses[fold(i, asciiCaseInsensitive)];
+		}
+		this.classCount = nextClass;
+		this.maxLength = longest;
+
+		// build the trie; -1 marks a missing edge
+		List<int[]> trie = new ArrayList<int[]>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		trie.add(newRow());
+		lengths.add(Integer.valueOf(0));
+		for (byte[] needle : needles) {
+			int state = 0;
+			for (byte b : needle) {
+				int c = this.classes[b & 0xFF];
+				if (trie.get(state)[c] < 0) {
+					trie.get(state)[c] = trie.size();
+					trie.add(newRow());
+					lengths.add(Integer.valueOf(0));
+				}
+				state = trie.get(state)[c];
+			}
+			lengths.set(state, Integer.valueOf(needle.length));
+		}
+
+		// breadth first, fill in missing edges from the failure links and inherit match lengths
+		int stateCount = trie.size();
+		this.transitions = new int[stateCount * classCount];
+		this.matchLengths = new int[stateCount];
+		int[] failure = new int[stateCount];
+		int[] queue = new int[stateCount];
+		int head = 0;
+		int tail = 0;
+		int[] root = trie.get(0);
+		for (int c=0; c<classCount; c++) {
+			int next = root[c];
+			if (next < 0) {
+				this.transitions[c] = 0;
+			} else {
+				this.transitions[c] = next;
+				failure[next] = 0;
+				queue[tail++] = next;
+			}
+		}
+		for (int state=0; state<stateCount; state++) {
+			this.matchLengths[state] = lengths.get(state).intValue();
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			// a sequence ending at the failure state also ends here; keep the longest
+			this.matchLengths[state] = Math.max(this.matchLengths[state], this.matchLengths[failure[state]]);
+			int[] row = trie.get(state);
+			for (int c=0; c<classCount; c++) {
+				int next = row[c];
+				int fallback = this.transitions[failure[state] * classCount + c];
+				if (next < 0) {
+					this.transitions[state * classCount + c] = fallback;
+				} else {
+					this.transitions[state * classCount + c] = next;
+					failure[next] = fallback;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	private int[] newRow() {
+		int[] row = new int[this.classCount];
+		Arrays.fill(row, -1);
+		return row;
+	}
+
+	private static int fold(int b, boolean asciiCaseInsensitive) {
+		return (asciiCaseInsensitive && b >= 'A' && b <= 'Z')? b + ('a' - 'A') : b;
+	}
+
+	@Override
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Finds the match that ends first among matches that start at or after the given start
+	 * index and end at or before the given end index.  Where more than one sequence ends at
+	 * the same index, the start of the longest is returned.
+	 *
+	 * @param buffer		bytes to search
+	 * @param from			index to start searching from, inclusive
+	 * @param to			index to stop searching at, exclusive
+	 *
+	 * @return				index of start of match, or -1 if there is no match
+	 */
+	@Override
+	public int find(byte[] buffer, int from, int to) {
+		final char[] classes = this.classes;
+		final int[] transitions = this.transitions;
+		final int[] matchLengths = this.matchLengths;
+		final int classCount = this.classCount;
+		int state = 0;
+		for (int i=from; i<to; i++) {
+			state = transitions[state * classCount + classes[buffer[i] & 0xFF]];
+			int length = matchLengths[state];
+			if (length > 0) {
+				return i - length + 1;
+			}
+		}
+		return -1;
+	}
+}
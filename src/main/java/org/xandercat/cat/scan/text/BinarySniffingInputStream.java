@@ -0,0 +1,56 @@
+package org.xandercat.cat.scan.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Input stream that reads the first block of a stream ahead to tell whether the content is
+ * binary, then returns the whole stream from the beginning.  The block read ahead is the
+ * first read a search would make anyway, so recognizing binary content costs no extra I/O.
+ *
+ * As with grep, content is considered binary if the first block contains a NUL byte, which
+ * virtually never appears in text encoded in ASCII compatible charsets but is common in
+ * executables, images, class files, and other binary formats.
+ */
+public class BinarySniffingInputStream extends PushbackInputStream {
+
+	/**
+	 * Number of bytes read ahead to tell whether content is binary.
+	 */
+	public static final int SNIFF_SIZE = 8192;
+
+	private final boolean binary;
+
+	/**
+	 * Constructs a new stream, reading the first block of the given stream.
+	 *
+	 * @param in		stream to read
+	 *
+	 * @throws IOException
+	 */
+	public BinarySniffingInputStream(InputStream in) throws IOException {
+		super(in, SNIFF_SIZE);
+		// read straight into the pushback buffer, then move what was read to its end
+		int length = 0;
+		for (int read = 0; read >= 0 && length < SNIFF_SIZE; read = in.read(buf, length, SNIFF_SIZE - length)) {
+			length += read;
+		}
+		boolean binary = false;
+		for (int i=0; i<length && !binary; i++) {
+			binary = (buf[i] == 0);
+		}
+		this.binary = binary;
+		System.arraycopy(buf, 0, buf, SNIFF_SIZE - length, length);
+		this.pos = SNIFF_SIZE - length;
+	}
+
+	/**
+	 * Returns whether or not the content of the stream is binary.
+	 *
+	 * @return		whether or not content is binary
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+}
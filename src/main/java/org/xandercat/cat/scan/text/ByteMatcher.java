@@ -0,0 +1,29 @@
+package org.xandercat.cat.scan.text;
+
+/**
+ * Matcher for finding encoded search text within a byte array.
+ *
+ * Implementations must be immutable so that they can be shared by any number of threads.
+ */
+public interface ByteMatcher {
+
+	/**
+	 * Gets the number of bytes in the longest possible match.
+	 *
+	 * @return		maximum match length in bytes
+	 */
+	public int maxLength();
+
+	/**
+	 * Finds a match that starts at or after the given start index and ends at or before the
+	 * given end index.  Where there is more than one such match, the match returned is the one
+	 * that ends first.
+	 *
+	 * @param buffer		bytes to search
+	 * @param from			index to start searching from, inclusive
+	 * @param to			index to stop searching at, exclusive
+	 *
+	 * @return				index of start of match, or -1 if there is no match
+	 */
+	public int find(byte[] buffer, int from, int to);
+}
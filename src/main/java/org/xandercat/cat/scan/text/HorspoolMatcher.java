@@ -0,0 +1,96 @@
+package org.xandercat.cat.scan.text;
+
+/**
+ * Boyer-Moore-Horspool matcher for finding a byte sequence within a byte array.  Matching
+ * can optionally fold ASCII letters to lower case; folding is done within the comparison,
+ * so the searched bytes are never copied or converted.
+ *
+ * Instances are immutable and can be shared by any number of threads.
+ */
+public class HorspoolMatcher implements ByteMatcher {
+
+	private static final byte[] IDENTITY = new byte[256];
+	private static final byte[] ASCII_LOWER_CASE = new byte[256];
+	static {
+		for (int i=0; i<256; i++) {
+			IDENTITY[i] = (byte) i;
+			ASCII_LOWER_CASE[i] = (byte) ((i >= 'A' && i <= 'Z')? i + ('a' - 'A') : i);
+		}
+	}
+
+	private final byte[] needle;
+	private final byte[] fold;
+	private final int[] shift = new int[256];
+
+	/**
+	 * Constructs a new matcher for the given byte sequence.
+	 *
+	 * @param needle					bytes to search for; must not be empty
+	 * @param asciiCaseInsensitive		whether or not ASCII letters should match regardless of case
+	 */
+	public HorspoolMatcher(byte[] needle, boolean asciiCaseInsensitive) {
+		if (needle.length == 0) {
+			throw new IllegalArgumentException("Search bytes cannot be empty.");
+		}
+		this.fold = asciiCaseInsensitive? ASCII_LOWER_CASE : IDENTITY;
+		this.needle = new byte[needle.length];
+		for (int i=0; i<needle.length; i++) {
+			this.needle[i] = fold[needle[i] & 0xFF];
+		}
+		int last = needle.length - 1;
+		for (int i=0; i<256; i++) {
+			shift[i] = needle.length;
+		}
+		for (int i=0; i<last; i++) {
+			shift[this.needle[i] & 0xFF] = last - i;
+		}
+	}
+
+	/**
+	 * Gets the number of bytes in a match.
+	 *
+	 * @return		match length in bytes
+	 */
+	public int length() {
+		return needle.length;
+	}
+
+	@Override
+	public int maxLength() {
+		return needle.length;
+	}
+
+	/**
+	 * Finds the first match that starts at or after the given start index and ends at or
+	 * before the given end index.  As all matches have the same length, this is also the
+	 * match that ends first.
+	 *
+	 * @param buffer		bytes to search
+	 * @param from			index to start searching from, inclusive
+	 * @param to			index to stop searching at, exclusive
+	 *
+	 * @return				index of start of match, or -1 if there is no match
+	 */
+	@Override
+	public int find(byte[] buffer, int from, int to) {
+		final byte[] needle = this.needle;
+		final byte[] fold = this.fold;
+		final int last = needle.length - 1;
+		final byte lastByte = needle[last];
+		int i = from;
+		while (i + last < to) {
+			byte b = fold[buffer[i + last] & 0xFF];
+			if (b == lastByte) {
+				int j = last - 1;
+				while (j >= 0 && fold[buffer[i + j] & 0xFF] == needle[j]) {
+					j--;
+				}
+				if (j < 0) {
+					return i;
+				}
+			}
+			i += shift[b & 0xFF];
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,298 @@
+package org.xandercat.cat.scan.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans a stream of encoded text for lines containing a match, working directly on the
+ * encoded bytes.  Bytes are read into a reusable buffer and searched without decoding;
+ * line numbers are tracked by counting line terminators, and a line is only decoded into
+ * a String once it is known to contain a match.  As with BufferedReader, a line is
+ * terminated by a line feed, a carriage return, or a carriage return followed by a line
+ * feed.  Each matching line is reported once.
+ *
+ * A scanner holds per-scan state and must only be used by one thread at a time; use
+ * forCurrentThread() to get a scanner whose buffer is reused for every scan on the
+ * current thread.
+ */
+public class LineScanner {
+
+	/**
+	 * Handler for matching lines found by a scanner.
+	 */
+	public static interface LineHandler {
+
+		/**
+		 * Called for each line that contains a match.
+		 *
+		 * @param lineNumber		line number, starting from 1
+		 * @param line				decoded line, without line terminator
+		 * @param column			column of first match within the line, in characters
+		 *
+		 * @return					whether or not scanning should continue
+		 */
+		public boolean lineMatched(int lineNumber, String line, int column);
+	}
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<LineScanner> scanners = new ThreadLocal<LineScanner>() {
+		@Override
+		protected LineScanner initialValue() {
+			return new LineScanner();
+		}
+	};
+
+	private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+	// scan state
+	private InputStream in;
+	private int limit;			// end of valid bytes in buffer
+	private int lineStart;		// start of the line containing position counted
+	private int lineNumber;		// line number of line starting at lineStart
+	private int counted;		// line terminators before this position have been counted
+	private boolean afterCR;	// whether byte before position counted is a carriage return
+	private boolean eof;
+
+	/**
+	 * Returns whether text encoded in the given charset can be scanned at byte level.  This 
+	 * is the case for UTF-8, where the encoding of one character never appears inside the
+	 * encoding of another, and for single byte charsets that encode ASCII as ASCII.  Other
+	 * multi-byte charsets can contain ASCII byte values within multi-byte characters and
+	 * are not supported.
+	 * 
+	 * @param charset		charset
+	 * 
+	 * @return				whether or not text in charset can be scanned at byte level
+	 */
+	public static boolean supports(Charset charset) {
+		if (StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)) {
+			return true;
+		}
+		if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+			return false;
+		}
+		char[] ascii = new char[128];
+		for (int i=0; i<ascii.length; i++) {
+			ascii[i] = (char) i;
+		}
+		byte[] encoded = new String(ascii).getBytes(charset);
+		if (encoded.length != ascii.length) {
+			return false;
+		}
+		for (int i=0; i<encoded.length; i++) {
+			if (encoded[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the scanner for the current thread.
+	 *
+	 * @return		scanner for current thread
+	 */
+	public static LineScanner forCurrentThread() {
+		return scanners.get();
+	}
+
+	/**
+	 * Scans the given stream for lines containing a match.  The stream is not closed.  If the
+	 * current thread is interrupted, scanning stops with an InterruptedIOException before the
+	 * next buffer is read.
+	 *
+	 * @param in			stream of encoded text
+	 * @param matcher		matcher for encoded search bytes; search bytes must not contain line terminators
+	 * @param charset		charset the text is encoded in; used to decode matching lines
+	 * @param handler		handler to notify of matching lines
+	 *
+	 * @throws IOException
+	 */
+	public void scan(InputStream in, ByteMatcher matcher, Charset charset, LineHandler handler) throws IOException {
+		scanLines(in, matcher, charset, handler);
+	}
+
+	/**
+	 * Counts the lines of the given stream that contain a match.  The stream is read to the
+	 * end but no text is decoded.  The stream is not closed.
+	 *
+	 * @param in			stream of encoded text
+	 * @param matcher		matcher for encoded search bytes; search bytes must not contain line terminators
+	 *
+	 * @return				number of lines containing a match
+	 *
+	 * @throws IOException
+	 */
+	public int countMatchingLines(InputStream in, ByteMatcher matcher) throws IOException {
+		return scanLines(in, matcher, null, null);
+	}
+
+	/**
+	 * Returns whether the given stream contains a match anywhere, without regard to lines.
+	 * This is safe for binary content, which may contain few or no line terminators; only as
+	 * much of the stream as the matcher needs is kept in the buffer.  The stream is read up
+	 * to the first match.  The stream is not closed.
+	 *
+	 * @param in			stream of bytes
+	 * @param matcher		matcher for search bytes
+	 *
+	 * @return				whether or not stream contains a match
+	 *
+	 * @throws IOException
+	 */
+	public boolean contains(InputStream in, ByteMatcher matcher) throws IOException {
+		start(in, matcher);
+		try {
+			int searchFrom = 0;
+			while (true) {
+				if (matcher.find(buffer, searchFrom, limit) >= 0) {
+					return true;
+				} else if (eof) {
+					return false;
+				}
+				searchFrom = Math.max(searchFrom, limit - matcher.maxLength() + 1);
+				lineStart = searchFrom;	// bytes before this have been searched and can be discarded
+				counted = searchFrom;
+				searchFrom -= fill();
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	private void start(InputStream in, ByteMatcher matcher) {
+		if (buffer.length < matcher.maxLength() * 2) {
+			buffer = new byte[matcher.maxLength() * 2];
+		}
+		this.in = in;
+		this.limit = 0;
+		this.lineStart = 0;
+		this.lineNumber = 1;
+		this.counted = 0;
+		this.afterCR = false;
+		this.eof = false;
+	}
+
+	private void finish() {
+		this.in = null;
+		if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+			buffer = new byte[DEFAULT_BUFFER_SIZE];
+		}
+	}
+
+	private int scanLines(InputStream in, ByteMatcher matcher, Charset charset, LineHandler handler) throws IOException {
+		start(in, matcher);
+		int matchingLines = 0;
+		try {
+			int searchFrom = 0;
+			while (true) {
+				int hit = matcher.find(buffer, searchFrom, limit);
+				if (hit >= 0) {
+					countLines(hit);
+					int lineEnd = findLineEnd(hit);
+					while (lineEnd < 0 && !eof) {
+						int shift = fill();
+						hit -= shift;
+						lineEnd = findLineEnd(hit);
+					}
+					if (lineEnd < 0) {
+						lineEnd = limit;
+					}
+					matchingLines++;
+					if (handler != null) {
+						String line = new String(buffer, lineStart, lineEnd - lineStart, charset);
+						int column = (hit == lineStart)? 0 : new String(buffer, lineStart, hit - lineStart, charset).length();
+						if (!handler.lineMatched(lineNumber, line, column)) {
+							return matchingLines;
+						}
+					}
+					searchFrom = lineEnd;
+				} else if (eof) {
+					return matchingLines;
+				} else {
+					// everything before the last (maxLength - 1) bytes has been searched
+					searchFrom = Math.max(searchFrom, limit - matcher.maxLength() + 1);
+					countLines(searchFrom);
+					searchFrom -= fill();
+				}
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	/**
+	 * Counts line terminators from position counted up to the given position.
+	 *
+	 * @param to		position to count up to, exclusive
+	 */
+	private void countLines(int to) {
+		final byte[] buffer = this.buffer;
+		for (int i=counted; i<to; i++) {
+			byte b = buffer[i];
+			if (b == '\n') {
+				if (!afterCR) {
+					lineNumber++;
+				}
+				lineStart = i + 1;
+				afterCR = false;
+			} else if (b == '\r') {
+				lineNumber++;
+				lineStart = i + 1;
+				afterCR = true;
+			} else {
+				afterCR = false;
+			}
+		}
+		if (to > counted) {
+			counted = to;
+		}
+	}
+
+	private int findLineEnd(int from) {
+		for (int i=from; i<limit; i++) {
+			if (buffer[i] == '\n' || buffer[i] == '\r') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads more bytes into the buffer.  Bytes before the start of the current line are
+	 * discarded to make room; if the current line fills the buffer, the buffer is grown.
+	 *
+	 * @return		number of positions bytes in the buffer were shifted down by
+	 *
+	 * @throws IOException
+	 */
+	private int fill() throws IOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Scan interrupted.");	// search was cancelled
+		}
+		int shift = lineStart;
+		if (shift > 0) {
+			System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+			limit -= shift;
+			counted -= shift;
+			lineStart = 0;
+		}
+		if (limit == buffer.length) {
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+		return shift;
+	}
+}
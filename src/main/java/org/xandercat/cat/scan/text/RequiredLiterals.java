@@ -0,0 +1,286 @@
+package org.xandercat.cat.scan.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds literal text that every match of a regular expression must contain, so that text
+ * can be searched for the literal text first and the regular expression only applied where
+ * the literal text is found.  For each top level alternative of the expression, the longest
+ * run of characters that must appear in sequence is found; every match contains at least
+ * one of these.
+ *
+ * The analysis is conservative.  Groups, character classes, and optional characters end a
+ * run, and if the expression contains a construct that is not understood, such as inline
+ * flags or escapes that take arguments, no literal text is reported at all.
+ */
+public class RequiredLiterals {
+
+	private static final String SIMPLE_ESCAPES = "dDsSwWbBAGZzRXhHvVntrfea";	// escapes that take no argument
+
+	private RequiredLiterals() {
+	}
+
+	/**
+	 * Finds literal text required by the given regular expression.
+	 *
+	 * @param regex		regular expression; assumed to be valid
+	 *
+	 * @return			literal strings, at least one of which appears in every match, or null if none could be determined
+	 */
+	public static List<String> find(String regex) {
+		List<String> alternatives = splitAlternatives(regex);
+		if (alternatives == null) {
+			return null;
+		}
+		List<String> literals = new ArrayList<String>(alternatives.size());
+		for (String alternative : alternatives) {
+			String literal = findLongestRun(alternative);
+			if (literal == null || literal.length() == 0) {
+				return null;	// this alternative can match without any known text
+			}
+			if (!literals.contains(literal)) {
+				literals.add(literal);
+			}
+		}
+		return literals;
+	}
+
+	private static List<String> splitAlternatives(String regex) {
+		List<String> alternatives = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (regex.startsWith("\\Q", i)) {
+					int end = regex.indexOf("\\E", i + 2);
+					i = (end < 0)? regex.length() : end + 2;
+				} else {
+					i += 2;
+				}
+				continue;
+			}
+			if (c == '[') {
+				i = skipClass(regex, i);
+				if (i < 0) {
+					return null;
+				}
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				alternatives.add(regex.substring(start, i));
+				start = i + 1;
+			}
+			i++;
+		}
+		if (depth != 0) {
+			return null;
+		}
+		alternatives.add(regex.substring(start));
+		return alternatives;
+	}
+
+	private static String findLongestRun(String regex) {
+		StringBuilder run = new StringBuilder();
+		String longest = "";
+		int n = regex.length();
+		int i = 0;
+		while (i < n) {
+			char c = regex.charAt(i);
+			String literal = null;	// characters matched literally by this atom, if any
+			int atomEnd;
+			if (c == '\\') {
+				if (i + 1 >= n) {
+					return null;
+				}
+				char escaped = regex.charAt(i + 1);
+				if (escaped == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					literal = (end < 0)? regex.substring(i + 2) : regex.substring(i + 2, end);
+					atomEnd = (end < 0)? n : end + 2;
+				} else if (Character.isLetterOrDigit(escaped)) {
+					if (SIMPLE_ESCAPES.indexOf(escaped) < 0) {
+						return null;	// back references, code points, properties and the like
+					}
+					atomEnd = i + 2;
+				} else {
+					literal = String.valueOf(escaped);
+					atomEnd = i + 2;
+				}
+			} else if (c == '[') {
+				atomEnd = skipClass(regex, i);
+				if (atomEnd < 0) {
+					return null;
+				}
+			} else if (c == '(') {
+				if (regex.startsWith("(?", i) && i + 2 < n && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+					return null;	// inline flags may change how the rest of the expression matches
+				}
+				atomEnd = skipGroup(regex, i);
+				if (atomEnd < 0) {
+					return null;
+				}
+			} else if (c == '.' || c == '^' || c == '$') {
+				atomEnd = i + 1;
+			} else if (c == ')' || c == '|' || c == '*' || c == '+' || c == '?' || c == '{') {
+				return null;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(regex.charAt(i + 1))) {
+				literal = regex.substring(i, i + 2);
+				atomEnd = i + 2;
+			} else {
+				literal = String.valueOf(c);
+				atomEnd = i + 1;
+			}
+
+			// a quantifier applies to the last character of a literal, or to the whole atom otherwise
+			int next = atomEnd;
+			boolean quantified = false;
+			int minimum = 1;
+			if (next < n) {
+				char q = regex.charAt(next);
+				if (q == '*' || q == '?') {
+					quantified = true;
+					minimum = 0;
+					next++;
+				} else if (q == '+') {
+					quantified = true;
+					next++;
+				} else if (q == '{') {
+					int close = regex.indexOf('}', next);
+					if (close < 0) {
+						return null;
+					}
+					String bounds = regex.substring(next + 1, close);
+					int comma = bounds.indexOf(',');
+					try {
+						minimum = Integer.parseInt((comma < 0)? bounds.trim() : bounds.substring(0, comma).trim());
+					} catch (NumberFormatException e) {
+						return null;
+					}
+					quantified = true;
+					next = close + 1;
+				}
+				if (quantified && next < n && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+					next++;	// reluctant or possessive quantifier
+				}
+			}
+			if (literal != null && literal.length() > 0) {
+				if (!quantified) {
+					run.append(literal);
+				} else {
+					int lastLength = Character.charCount(literal.codePointBefore(literal.length()));
+					run.append(literal, 0, literal.length() - lastLength);
+					if (minimum > 0) {
+						run.append(literal, literal.length() - lastLength, literal.length());
+					}
+					longest = longer(longest, run);
+					run.setLength(0);
+				}
+			} else {
+				longest = longer(longest, run);
+				run.setLength(0);
+			}
+			i = next;
+		}
+		return longer(longest, run);
+	}
+
+	private static String longer(String longest, StringBuilder run) {
+		return (run.length() > longest.length())? run.toString() : longest;
+	}
+
+	/**
+	 * Finds the end of a character class.
+	 *
+	 * @param regex		regular expression
+	 * @param start		index of opening bracket of class
+	 *
+	 * @return			index after closing bracket of class, or -1 if the class cannot be understood
+	 */
+	private static int skipClass(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			return -1;	// leading bracket; treated differently by different regular expression dialects
+		}
+		int depth = 1;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (regex.startsWith("\\Q", i)) {
+					int end = regex.indexOf("\\E", i + 2);
+					if (end < 0) {
+						return -1;
+					}
+					i = end + 2;
+				} else {
+					i += 2;
+				}
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the end of a group.
+	 *
+	 * @param regex		regular expression
+	 * @param start		index of opening parenthesis of group
+	 *
+	 * @return			index after closing parenthesis of group, or -1 if the group cannot be understood
+	 */
+	private static int skipGroup(String regex, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (regex.startsWith("\\Q", i)) {
+					int end = regex.indexOf("\\E", i + 2);
+					if (end < 0) {
+						return -1;
+					}
+					i = end + 2;
+				} else {
+					i += 2;
+				}
+				continue;
+			}
+			if (c == '[') {
+				i = skipClass(regex, i);
+				if (i < 0) {
+					return -1;
+				}
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			i++;
+		}
+		return -1;
+	}
+}
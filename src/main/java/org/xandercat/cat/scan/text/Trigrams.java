@@ -0,0 +1,153 @@
+package org.xandercat.cat.scan.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Collects the distinct trigrams of encoded text, for the trigram index.  A trigram is a run
+ * of three consecutive bytes, packed into the low 24 bits of an int.  ASCII letters are folded
+ * to lower case before trigrams are taken, as the byte matchers fold them for case insensitive
+ * searches; trigrams of a literal taken the same way are then contained in the trigrams of any
+ * text the literal can match, whether or not the search is case sensitive.  Trigrams spanning
+ * a line break are not collected, as searches never match across lines.
+ *
+ * Content is added one stream at a time, with no trigram spanning two streams, and the
+ * trigrams collected so far are taken with finish().  Distinct trigrams are tracked with one
+ * bit for every possible trigram, so each collector holds two megabytes; collectors are kept
+ * one per thread and reused.
+ */
+public class Trigrams {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<Trigrams> collectors = new ThreadLocal<Trigrams>() {
+		@Override
+		protected Trigrams initialValue() {
+			return new Trigrams();
+		}
+	};
+
+	private final long[] collected = new long[(1 << 24) / 64];	// one bit for every possible trigram
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int[] trigrams = new int[4096];
+	private int count;
+
+	private Trigrams() {
+	}
+
+	/**
+	 * Gets the collector for the current thread.
+	 *
+	 * @return		trigram collector
+	 */
+	public static Trigrams forCurrentThread() {
+		return collectors.get();
+	}
+
+	private static int fold(int b) {
+		return (b >= 'A' && b <= 'Z')? b + ('a' - 'A') : b;
+	}
+
+	/**
+	 * Adds the trigrams of the content of a stream.  The stream is read to the end but is not
+	 * closed.  If the current thread is interrupted, reading stops with an InterruptedIOException
+	 * before the next buffer is read.
+	 *
+	 * @param in		stream to read
+	 *
+	 * @throws IOException
+	 */
+	public void add(InputStream in) throws IOException {
+		int trigram = 0;
+		int run = 0;	// number of bytes since the last line break
+		int read = 0;
+		while ((read = in.read(buffer)) >= 0) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("Indexing interrupted.");	// search was cancelled
+			}
+			for (int i=0; i<read; i++) {
+				int b = buffer[i] & 0xFF;
+				if (b == '\n' || b == '\r') {
+					run = 0;
+					continue;
+				}
+				trigram = ((trigram << 8) | fold(b)) & 0xFFFFFF;
+				if (++run >= 3) {
+					add(trigram);
+				}
+			}
+		}
+	}
+
+	private void add(int trigram) {
+		long bit = 1L << trigram;
+		int word = trigram >>> 6;
+		if ((collected[word] & bit) == 0) {
+			collected[word] |= bit;
+			if (count == trigrams.length) {
+				trigrams = Arrays.copyOf(trigrams, count * 2);
+			}
+			trigrams[count++] = trigram;
+		}
+	}
+
+	/**
+	 * Takes the trigrams collected since the last call, leaving the collector empty.
+	 *
+	 * @return		distinct trigrams, in ascending order
+	 */
+	public int[] finish() {
+		int[] result = Arrays.copyOf(trigrams, count);
+		for (int trigram : result) {
+			collected[trigram >>> 6] = 0;
+		}
+		count = 0;
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Gets the trigrams of encoded literal text.
+	 *
+	 * @param text		encoded text, without line breaks
+	 *
+	 * @return			distinct trigrams, in ascending order; empty if text is shorter than three bytes
+	 */
+	public static int[] of(byte[] text) {
+		int[] result = new int[Math.max(text.length - 2, 0)];
+		for (int i=0; i<result.length; i++) {
+			result[i] = (fold(text[i] & 0xFF) << 16) | (fold(text[i+1] & 0xFF) << 8) | fold(text[i+2] & 0xFF);
+		}
+		Arrays.sort(result);
+		int distinct = 0;
+		for (int i=0; i<result.length; i++) {
+			if (i == 0 || result[i] != result[i-1]) {
+				result[distinct++] = result[i];
+			}
+		}
+		return Arrays.copyOf(result, distinct);
+	}
+
+	/**
+	 * Returns whether or not one set of trigrams contains all of another.
+	 *
+	 * @param trigrams		distinct trigrams, in ascending order
+	 * @param required		distinct trigrams, in ascending order
+	 *
+	 * @return				whether or not every required trigram is contained
+	 */
+	public static boolean containsAll(int[] trigrams, int[] required) {
+		int i = 0;
+		for (int trigram : required) {
+			while (i < trigrams.length && trigrams[i] < trigram) {
+				i++;
+			}
+			if (i == trigrams.length || trigrams[i] != trigram) {
+				return false;
+			}
+		}
+		return true;
+	}
+}